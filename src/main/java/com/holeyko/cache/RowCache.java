@@ -0,0 +1,247 @@
+package com.holeyko.cache;
+
+import com.holeyko.entry.BaseEntry;
+import com.holeyko.entry.Entry;
+import com.holeyko.entry.ExpiringEntry;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of entries found by point lookups in SSTables. It's split into shards, every shard is LRU map
+ * with its part of the byte budget under its own lock. Entries are copied to the heap,
+ * so they don't depend on SSTables' files which are closed by compaction.
+ *
+ * <p>Fills are protected from races with writes by versions of key stripes: a reader takes {@link #version}
+ * before it reads the memory table, every invalidation increments versions under the shard's lock,
+ * and {@link #put} is refused if the version was changed since. So a value read before an upsert
+ * can't be cached after the upsert is invalidated.
+ */
+public class RowCache {
+    private static final int COUNT_SHARDS = 16;
+    private static final int COUNT_STRIPES = 1024;
+    // Approximate size of the map's node, the entry and the key's holder
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Shard[] shards = new Shard[COUNT_SHARDS];
+    private final AtomicLongArray versions = new AtomicLongArray(COUNT_STRIPES);
+    private final boolean cacheAbsent;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacityBytes budget of the cache, entries and keys are counted with approximate overhead
+     * @param cacheAbsent whether absent and deleted keys are cached too
+     */
+    public RowCache(long capacityBytes, boolean cacheAbsent) {
+        if (capacityBytes <= 0) {
+            throw new IllegalArgumentException("Capacity of row cache must be positive: " + capacityBytes);
+        }
+
+        for (int i = 0; i < COUNT_SHARDS; ++i) {
+            shards[i] = new Shard(capacityBytes / COUNT_SHARDS);
+        }
+        this.cacheAbsent = cacheAbsent;
+    }
+
+    /**
+     * Returns version of the key's stripe which should be passed to {@link #put} of the looked up entry.
+     * It must be taken before sources of the entry are read.
+     */
+    public long version(MemorySegment key) {
+        return versions.get(stripe(MemorySegmentUtils.hash(key)));
+    }
+
+    /**
+     * Returns cached entry, entry with null value if the key is cached as absent
+     * or null if the key isn't cached.
+     */
+    public Entry<MemorySegment> get(MemorySegment key) {
+        long hash = MemorySegmentUtils.hash(key);
+        Entry<MemorySegment> entry = shard(hash).get(new Key(key, hash));
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the entry found by the key, null entry means the key is absent.
+     * The entry isn't cached if the key was invalidated since the version was taken.
+     */
+    public void put(MemorySegment key, Entry<MemorySegment> entry, long version) {
+        if (!cacheAbsent && (entry == null || entry.value() == null)) {
+            return;
+        }
+
+        long hash = MemorySegmentUtils.hash(key);
+        Entry<MemorySegment> copy = copy(key, entry);
+        long valueBytes = copy.value() == null ? 0 : copy.value().byteSize();
+        long bytes = ENTRY_OVERHEAD_BYTES + copy.key().byteSize() + valueBytes;
+        shard(hash).put(new Key(copy.key(), hash), copy, bytes, stripe(hash), version);
+    }
+
+    /**
+     * Removes the key and refuses its fills which have started before.
+     */
+    public void invalidate(MemorySegment key) {
+        long hash = MemorySegmentUtils.hash(key);
+        shard(hash).invalidate(new Key(key, hash), stripe(hash));
+    }
+
+    /**
+     * Removes all keys and refuses fills which have started before, e.g. after range deletion.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < COUNT_SHARDS; ++i) {
+            shards[i].invalidateAll(i);
+        }
+    }
+
+    public Stats stats() {
+        long sizeBytes = 0;
+        long countEntries = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                sizeBytes += shard.usedBytes;
+                countEntries += shard.entries.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), countEntries, sizeBytes);
+    }
+
+    private Shard shard(long hash) {
+        return shards[stripe(hash) % COUNT_SHARDS];
+    }
+
+    /**
+     * Stripes are split between shards, so a stripe is always changed under the same lock.
+     */
+    private static int stripe(long hash) {
+        return (int) (hash >>> 32) & (COUNT_STRIPES - 1);
+    }
+
+    private static Entry<MemorySegment> copy(MemorySegment key, Entry<MemorySegment> entry) {
+        MemorySegment keyCopy = copy(key);
+        if (entry == null) {
+            return new BaseEntry<>(keyCopy, null);
+        }
+
+        MemorySegment valueCopy = entry.value() == null ? null : copy(entry.value());
+        if (entry.expiresAt() != Entry.NEVER_EXPIRES) {
+            return new ExpiringEntry<>(keyCopy, valueCopy, entry.expiresAt());
+        }
+        return new BaseEntry<>(keyCopy, valueCopy);
+    }
+
+    private static MemorySegment copy(MemorySegment segment) {
+        return MemorySegment.ofArray(segment.toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    /**
+     * @param hits lookups which found the key in the cache, including keys cached as absent
+     * @param misses lookups which didn't find the key in the cache
+     */
+    public record Stats(long hits, long misses, long countEntries, long sizeBytes) {
+    }
+
+    private final class Shard {
+        private final Lock lock = new ReentrantLock();
+        private final LinkedHashMap<Key, Sized> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long capacityBytes;
+        private long usedBytes;
+
+        Shard(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+        }
+
+        Entry<MemorySegment> get(Key key) {
+            lock.lock();
+            try {
+                Sized sized = entries.get(key);
+                return sized == null ? null : sized.entry();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(Key key, Entry<MemorySegment> entry, long bytes, int stripe, long version) {
+            if (bytes > capacityBytes) {
+                return;
+            }
+
+            lock.lock();
+            try {
+                if (versions.get(stripe) != version) {
+                    return;
+                }
+
+                Sized prev = entries.put(key, new Sized(entry, bytes));
+                usedBytes += bytes - (prev == null ? 0 : prev.bytes());
+                Iterator<Sized> eldest = entries.values().iterator();
+                while (usedBytes > capacityBytes) {
+                    usedBytes -= eldest.next().bytes();
+                    eldest.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidate(Key key, int stripe) {
+            lock.lock();
+            try {
+                versions.incrementAndGet(stripe);
+                Sized removed = entries.remove(key);
+                if (removed != null) {
+                    usedBytes -= removed.bytes();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void invalidateAll(int shardIndex) {
+            lock.lock();
+            try {
+                for (int stripe = shardIndex; stripe < COUNT_STRIPES; stripe += COUNT_SHARDS) {
+                    versions.incrementAndGet(stripe);
+                }
+                entries.clear();
+                usedBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private record Sized(Entry<MemorySegment> entry, long bytes) {
+    }
+
+    /**
+     * Key compared by bytes with precomputed hash.
+     */
+    private record Key(MemorySegment key, long hash) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key that && hash == that.hash && key.mismatch(that.key) == -1;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.holeyko.dao;
+
+import com.holeyko.entry.Entry;
+import com.holeyko.utils.IteratorUtils;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.io.Closeable;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade of Dao which calls it on virtual threads, so blocking on page faults doesn't block callers.
+ * No more than maxConcurrency calls of Dao run at once. Gets which wait for their turn are coalesced
+ * into one {@link Dao#getAll} call of no more than maxBatchSize keys.
+ * Closing of the facade waits for started calls, but doesn't close Dao. Calls after closing
+ * and gets which weren't started before it fail with {@link IllegalStateException}.
+ */
+public class AsyncDao implements Closeable {
+    private final Dao<MemorySegment, Entry<MemorySegment>> dao;
+    private final int maxBatchSize;
+    private final Semaphore permits;
+    private final ExecutorService worker = Executors.newVirtualThreadPerTaskExecutor();
+    private final Queue<GetRequest> pendingGets = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed;
+
+    public AsyncDao(Dao<MemorySegment, Entry<MemorySegment>> dao, int maxConcurrency, int maxBatchSize) {
+        if (maxConcurrency <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Concurrency and batch size must be positive: %d, %d".formatted(maxConcurrency, maxBatchSize)
+            );
+        }
+
+        this.dao = dao;
+        this.maxBatchSize = maxBatchSize;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Returns future of entry by key, null if it's absent.
+     */
+    public CompletableFuture<Entry<MemorySegment>> getAsync(MemorySegment key) {
+        if (closed) {
+            return CompletableFuture.failedFuture(closedException(null));
+        }
+
+        GetRequest request = new GetRequest(key, new CompletableFuture<>());
+        pendingGets.add(request);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                worker.execute(this::drainGets);
+            } catch (RejectedExecutionException e) {
+                // The facade was closed meanwhile
+                draining.set(false);
+                failPendingGets(closedException(e));
+            }
+        }
+        return request.result();
+    }
+
+    public CompletableFuture<Void> upsertAsync(Entry<MemorySegment> entry) {
+        return submit(() -> {
+            dao.upsert(entry);
+            return null;
+        });
+    }
+
+    /**
+     * Returns future of no more than limit entries with keys between from (inclusive) and to (exclusive)
+     * in ascending order.
+     */
+    public CompletableFuture<List<Entry<MemorySegment>>> scanAsync(
+            MemorySegment from,
+            MemorySegment to,
+            int limit
+    ) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit of scan must be positive: " + limit);
+        }
+
+        return submit(() -> {
+            List<Entry<MemorySegment>> entries = new ArrayList<>();
+            Iterator<Entry<MemorySegment>> iterator = dao.get(from, to);
+            try {
+                while (entries.size() < limit && iterator.hasNext()) {
+                    entries.add(iterator.next());
+                }
+            } finally {
+                IteratorUtils.close(iterator);
+            }
+            return entries;
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.close();
+        failPendingGets(closedException(null));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> action) {
+        if (closed) {
+            return CompletableFuture.failedFuture(closedException(null));
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            worker.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    result.complete(action.get());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(closedException(e));
+        }
+        return result;
+    }
+
+    /**
+     * Takes pending gets by batches while they are. Permit is acquired before a batch is taken,
+     * so gets which come while all permits are busy get into the same batch.
+     */
+    private void drainGets() {
+        while (true) {
+            permits.acquireUninterruptibly();
+            List<GetRequest> batch = new ArrayList<>();
+            GetRequest request;
+            while (batch.size() < maxBatchSize && (request = pendingGets.poll()) != null) {
+                batch.add(request);
+            }
+
+            if (batch.isEmpty()) {
+                permits.release();
+                draining.set(false);
+                // Get could be added after the queue was checked but before the flag was reset
+                if (pendingGets.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                worker.execute(() -> {
+                    try {
+                        getBatch(batch);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                IllegalStateException closedEx = closedException(e);
+                batch.forEach(batchRequest -> batchRequest.result().completeExceptionally(closedEx));
+                draining.set(false);
+                failPendingGets(closedEx);
+                return;
+            }
+        }
+    }
+
+    private void failPendingGets(Throwable e) {
+        GetRequest request;
+        while ((request = pendingGets.poll()) != null) {
+            request.result().completeExceptionally(e);
+        }
+    }
+
+    private static IllegalStateException closedException(RejectedExecutionException cause) {
+        return new IllegalStateException("Async Dao is closed", cause);
+    }
+
+    /**
+     * Looks up the batch by one getAll call. If it fails, e.g. because of one invalid key,
+     * keys are looked up one by one, so only gets of bad keys fail. Errors fail the whole batch.
+     */
+    private void getBatch(List<GetRequest> batch) {
+        if (batch.size() == 1) {
+            get(batch.getFirst());
+            return;
+        }
+
+        Map<MemorySegment, Entry<MemorySegment>> found = new TreeMap<>(MemorySegmentUtils::compareMemorySegments);
+        try {
+            for (Entry<MemorySegment> entry : dao.getAll(batch.stream().map(GetRequest::key).toList())) {
+                found.put(entry.key(), entry);
+            }
+        } catch (Exception e) {
+            for (GetRequest request : batch) {
+                get(request);
+            }
+            return;
+        } catch (Error e) {
+            for (GetRequest request : batch) {
+                request.result().completeExceptionally(e);
+            }
+            throw e;
+        }
+
+        for (GetRequest request : batch) {
+            request.result().complete(found.get(request.key()));
+        }
+    }
+
+    private void get(GetRequest request) {
+        try {
+            request.result().complete(dao.get(request.key()));
+        } catch (Throwable e) {
+            request.result().completeExceptionally(e);
+        }
+    }
+
+    private record GetRequest(MemorySegment key, CompletableFuture<Entry<MemorySegment>> result) {
+    }
+}
@@ -1,6 +1,286 @@
 package com.holeyko.dao;
 
+import com.holeyko.filter.PrefixExtractor;
+import com.holeyko.sstable.ReadMode;
+import com.holeyko.sstable.TieringPolicy;
+
 import java.nio.file.Path;
 
-public record Config(Path basePath, long flushThresholdBytes) {
+/**
+ * @param valueSeparationThresholdBytes values of this size or bigger are stored in the value log,
+ *                                      0 disables key-value separation
+ * @param prefixExtractor extractor of keys' prefixes for SSTables' prefix Bloom filters, null disables filters
+ * @param hashIndex whether SSTables have hash index for point lookups, range queries use binary search anyway
+ * @param learnedIndex whether SSTables have learned index which narrows binary search,
+ *                     it suits keys with prefixes like big-endian numbers
+ * @param writeRateLimitBytesPerSecond limit of bytes per second written by flushes and compaction, 0 means no limit
+ * @param readMode how SSTables' files are read
+ * @param adviseRandom whether mapped SSTables are advised as randomly read, so point lookups don't trigger readahead,
+ *                     it suits data which is much bigger than memory
+ * @param compactionTargetFileBytes compaction output is split into SSTables of about this size,
+ *                                  0 means one SSTable
+ * @param compactionTombstoneRatio SSTable with bigger share of tombstones is compacted after a flush
+ *                                 with SSTables which overlap it, 0 disables the trigger
+ * @param fixedKeyBytes size of every key, a positive multiple of 8, or 0 if keys have any size.
+ *                      Fixed-size keys are compared as big-endian numbers and SSTables don't store their sizes
+ * @param abbreviatedKeyIndex whether SSTables store first 8 bytes of every key as a number, so binary search
+ *                            mostly compares numbers instead of reading records, it takes 8 bytes per record
+ * @param rowCacheBytes budget of the cache of entries found in SSTables by point lookups, 0 disables the cache.
+ *                      Partitions of {@link PartitionedLSMDao} have their own caches
+ * @param rowCacheAbsent whether the row cache keeps keys which aren't found or are deleted
+ * @param tieringPolicy placement of SSTables between the base path and the cold directory,
+ *                      null keeps all SSTables in the base path
+ */
+public record Config(
+        Path basePath,
+        long flushThresholdBytes,
+        long valueSeparationThresholdBytes,
+        PrefixExtractor prefixExtractor,
+        boolean hashIndex,
+        boolean learnedIndex,
+        long writeRateLimitBytesPerSecond,
+        ReadMode readMode,
+        boolean adviseRandom,
+        long compactionTargetFileBytes,
+        double compactionTombstoneRatio,
+        int fixedKeyBytes,
+        boolean abbreviatedKeyIndex,
+        long rowCacheBytes,
+        boolean rowCacheAbsent,
+        TieringPolicy tieringPolicy
+) {
+    public Config {
+        if (fixedKeyBytes < 0 || fixedKeyBytes % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Fixed size of keys must be a multiple of 8: " + fixedKeyBytes);
+        }
+        if (rowCacheBytes < 0) {
+            throw new IllegalArgumentException("Size of row cache must be non-negative: " + rowCacheBytes);
+        }
+    }
+
+    public Config(Path basePath, long flushThresholdBytes) {
+        this(builder(basePath, flushThresholdBytes));
+    }
+
+    private Config(Builder builder) {
+        this(
+                builder.basePath,
+                builder.flushThresholdBytes,
+                builder.valueSeparationThresholdBytes,
+                builder.prefixExtractor,
+                builder.hashIndex,
+                builder.learnedIndex,
+                builder.writeRateLimitBytesPerSecond,
+                builder.readMode,
+                builder.adviseRandom,
+                builder.compactionTargetFileBytes,
+                builder.compactionTombstoneRatio,
+                builder.fixedKeyBytes,
+                builder.abbreviatedKeyIndex,
+                builder.rowCacheBytes,
+                builder.rowCacheAbsent,
+                builder.tieringPolicy
+        );
+    }
+
+    /**
+     * Returns builder with default options: no key-value separation, filters, indexes, rate limit,
+     * row cache and tiering, mapped SSTables and one compaction output.
+     */
+    public static Builder builder(Path basePath, long flushThresholdBytes) {
+        return new Builder(basePath, flushThresholdBytes);
+    }
+
+    /**
+     * Returns builder initialized by options of this config.
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(basePath, flushThresholdBytes);
+        builder.valueSeparationThresholdBytes = valueSeparationThresholdBytes;
+        builder.prefixExtractor = prefixExtractor;
+        builder.hashIndex = hashIndex;
+        builder.learnedIndex = learnedIndex;
+        builder.writeRateLimitBytesPerSecond = writeRateLimitBytesPerSecond;
+        builder.readMode = readMode;
+        builder.adviseRandom = adviseRandom;
+        builder.compactionTargetFileBytes = compactionTargetFileBytes;
+        builder.compactionTombstoneRatio = compactionTombstoneRatio;
+        builder.fixedKeyBytes = fixedKeyBytes;
+        builder.abbreviatedKeyIndex = abbreviatedKeyIndex;
+        builder.rowCacheBytes = rowCacheBytes;
+        builder.rowCacheAbsent = rowCacheAbsent;
+        builder.tieringPolicy = tieringPolicy;
+        return builder;
+    }
+
+    public Config withBasePath(Path basePath) {
+        return toBuilder().basePath(basePath).build();
+    }
+
+    public Config withValueSeparationThresholdBytes(long valueSeparationThresholdBytes) {
+        return toBuilder().valueSeparationThresholdBytes(valueSeparationThresholdBytes).build();
+    }
+
+    public Config withPrefixExtractor(PrefixExtractor prefixExtractor) {
+        return toBuilder().prefixExtractor(prefixExtractor).build();
+    }
+
+    public Config withHashIndex(boolean hashIndex) {
+        return toBuilder().hashIndex(hashIndex).build();
+    }
+
+    public Config withLearnedIndex(boolean learnedIndex) {
+        return toBuilder().learnedIndex(learnedIndex).build();
+    }
+
+    public Config withWriteRateLimitBytesPerSecond(long writeRateLimitBytesPerSecond) {
+        return toBuilder().writeRateLimitBytesPerSecond(writeRateLimitBytesPerSecond).build();
+    }
+
+    public Config withReadMode(ReadMode readMode) {
+        return toBuilder().readMode(readMode).build();
+    }
+
+    public Config withAdviseRandom(boolean adviseRandom) {
+        return toBuilder().adviseRandom(adviseRandom).build();
+    }
+
+    public Config withCompactionTargetFileBytes(long compactionTargetFileBytes) {
+        return toBuilder().compactionTargetFileBytes(compactionTargetFileBytes).build();
+    }
+
+    public Config withCompactionTombstoneRatio(double compactionTombstoneRatio) {
+        return toBuilder().compactionTombstoneRatio(compactionTombstoneRatio).build();
+    }
+
+    public Config withFixedKeyBytes(int fixedKeyBytes) {
+        return toBuilder().fixedKeyBytes(fixedKeyBytes).build();
+    }
+
+    public Config withAbbreviatedKeyIndex(boolean abbreviatedKeyIndex) {
+        return toBuilder().abbreviatedKeyIndex(abbreviatedKeyIndex).build();
+    }
+
+    public Config withRowCacheBytes(long rowCacheBytes) {
+        return toBuilder().rowCacheBytes(rowCacheBytes).build();
+    }
+
+    public Config withRowCacheAbsent(boolean rowCacheAbsent) {
+        return toBuilder().rowCacheAbsent(rowCacheAbsent).build();
+    }
+
+    public Config withTieringPolicy(TieringPolicy tieringPolicy) {
+        return toBuilder().tieringPolicy(tieringPolicy).build();
+    }
+
+    /**
+     * Builder of {@link Config}, options which aren't set keep their defaults.
+     */
+    public static final class Builder {
+        private Path basePath;
+        private long flushThresholdBytes;
+        private long valueSeparationThresholdBytes;
+        private PrefixExtractor prefixExtractor;
+        private boolean hashIndex;
+        private boolean learnedIndex;
+        private long writeRateLimitBytesPerSecond;
+        private ReadMode readMode = ReadMode.MMAP;
+        private boolean adviseRandom;
+        private long compactionTargetFileBytes;
+        private double compactionTombstoneRatio;
+        private int fixedKeyBytes;
+        private boolean abbreviatedKeyIndex;
+        private long rowCacheBytes;
+        private boolean rowCacheAbsent;
+        private TieringPolicy tieringPolicy;
+
+        private Builder(Path basePath, long flushThresholdBytes) {
+            this.basePath = basePath;
+            this.flushThresholdBytes = flushThresholdBytes;
+        }
+
+        public Builder basePath(Path basePath) {
+            this.basePath = basePath;
+            return this;
+        }
+
+        public Builder flushThresholdBytes(long flushThresholdBytes) {
+            this.flushThresholdBytes = flushThresholdBytes;
+            return this;
+        }
+
+        public Builder valueSeparationThresholdBytes(long valueSeparationThresholdBytes) {
+            this.valueSeparationThresholdBytes = valueSeparationThresholdBytes;
+            return this;
+        }
+
+        public Builder prefixExtractor(PrefixExtractor prefixExtractor) {
+            this.prefixExtractor = prefixExtractor;
+            return this;
+        }
+
+        public Builder hashIndex(boolean hashIndex) {
+            this.hashIndex = hashIndex;
+            return this;
+        }
+
+        public Builder learnedIndex(boolean learnedIndex) {
+            this.learnedIndex = learnedIndex;
+            return this;
+        }
+
+        public Builder writeRateLimitBytesPerSecond(long writeRateLimitBytesPerSecond) {
+            this.writeRateLimitBytesPerSecond = writeRateLimitBytesPerSecond;
+            return this;
+        }
+
+        public Builder readMode(ReadMode readMode) {
+            this.readMode = readMode;
+            return this;
+        }
+
+        public Builder adviseRandom(boolean adviseRandom) {
+            this.adviseRandom = adviseRandom;
+            return this;
+        }
+
+        public Builder compactionTargetFileBytes(long compactionTargetFileBytes) {
+            this.compactionTargetFileBytes = compactionTargetFileBytes;
+            return this;
+        }
+
+        public Builder compactionTombstoneRatio(double compactionTombstoneRatio) {
+            this.compactionTombstoneRatio = compactionTombstoneRatio;
+            return this;
+        }
+
+        public Builder fixedKeyBytes(int fixedKeyBytes) {
+            this.fixedKeyBytes = fixedKeyBytes;
+            return this;
+        }
+
+        public Builder abbreviatedKeyIndex(boolean abbreviatedKeyIndex) {
+            this.abbreviatedKeyIndex = abbreviatedKeyIndex;
+            return this;
+        }
+
+        public Builder rowCacheBytes(long rowCacheBytes) {
+            this.rowCacheBytes = rowCacheBytes;
+            return this;
+        }
+
+        public Builder rowCacheAbsent(boolean rowCacheAbsent) {
+            this.rowCacheAbsent = rowCacheAbsent;
+            return this;
+        }
+
+        public Builder tieringPolicy(TieringPolicy tieringPolicy) {
+            this.tieringPolicy = tieringPolicy;
+            return this;
+        }
+
+        public Config build() {
+            return new Config(this);
+        }
+    }
 }
@@ -1,21 +1,60 @@
 package com.holeyko.dao;
 
 import com.holeyko.entry.Entry;
+import com.holeyko.utils.IteratorUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface Dao<D, E extends Entry<D>> extends Closeable {
 
     /**
      * Returns ordered iterator of entries with keys between from (inclusive) and to (exclusive).
+     * An iterator which is abandoned before it's exhausted should be closed by {@link IteratorUtils#close},
+     * otherwise it may keep resources of the storage.
      * @param from lower bound of range (inclusive)
      * @param to upper bound of range (exclusive)
      * @return entries [from;to)
      */
     Iterator<E> get(D from, D to);
 
+    /**
+     * Returns iterator of entries with keys between from (inclusive) and to (exclusive) in descending order.
+     * Note: default implementation is far from optimal.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return entries [from;to) from the greatest key to the least one
+     */
+    default Iterator<E> getDescending(D from, D to) {
+        List<E> entries = new ArrayList<>();
+        get(from, to).forEachRemaining(entries::add);
+        return entries.reversed().iterator();
+    }
+
+    /**
+     * Returns ordered stream of entries with keys between from (inclusive) and to (exclusive).
+     * A stream which isn't consumed entirely, e.g. by a short-circuiting operation, should be closed.
+     * Note: default implementation can't be split for parallel processing.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return entries [from;to)
+     */
+    default Stream<E> stream(D from, D to) {
+        Iterator<E> iterator = get(from, to);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+                false
+        ).onClose(() -> IteratorUtils.close(iterator));
+    }
+
     /**
      * Returns entry by key. Note: default implementation is far from optimal.
      * @param key entry`s key
@@ -23,15 +62,35 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
      */
     default E get(D key) {
         Iterator<E> iterator = get(key, null);
-        if (!iterator.hasNext()) {
+        try {
+            if (!iterator.hasNext()) {
+                return null;
+            }
+
+            E next = iterator.next();
+            if (next.key().equals(key)) {
+                return next;
+            }
             return null;
+        } finally {
+            IteratorUtils.close(iterator);
         }
+    }
 
-        E next = iterator.next();
-        if (next.key().equals(key)) {
-            return next;
+    /**
+     * Returns entries by keys. Absent keys are skipped. Note: default implementation is far from optimal.
+     * @param keys entries` keys
+     * @return found entries, order isn't specified
+     */
+    default List<E> getAll(Collection<D> keys) {
+        List<E> entries = new ArrayList<>();
+        for (D key : keys) {
+            E entry = get(key);
+            if (entry != null) {
+                entries.add(entry);
+            }
         }
-        return null;
+        return entries;
     }
 
     /**
@@ -60,12 +119,27 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
         return get(null, null);
     }
 
+    /**
+     * Returns iterator of all entries in descending order.
+     * @return all entries from the greatest key to the least one
+     */
+    default Iterator<E> allDescending() {
+        return getDescending(null, null);
+    }
+
     /**
      * Inserts of replaces entry.
      * @param entry element to upsert
      */
     void upsert(E entry);
 
+    /**
+     * Deletes all entries with keys between from (inclusive) and to (exclusive).
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     */
+    void deleteRange(D from, D to);
+
     /**
      * Persists data (no-op by default).
      */
@@ -0,0 +1,108 @@
+package com.holeyko.dao;
+
+import com.holeyko.entry.BaseEntry;
+import com.holeyko.entry.Entry;
+import com.holeyko.utils.FileUtils;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+/**
+ * Compares fixed-size keys with keys of any size on the same data: sorting of keys by comparators,
+ * upserts into the memory table, point lookups in SSTables and a full scan.
+ * Arguments: count of keys, count of lookups, size of keys.
+ */
+public final class FixedKeyBenchmark {
+    private static final ValueLayout.OfLong BIG_ENDIAN_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(
+            ByteOrder.BIG_ENDIAN
+    );
+    private static final long SEED = 42;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int countKeys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int countLookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int keyBytes = args.length > 2 ? Integer.parseInt(args[2]) : Long.BYTES;
+
+        MemorySegment[] keys = randomKeys(countKeys, keyBytes);
+        // The first round warms up the JIT
+        for (int round = 0; round < ROUNDS; ++round) {
+            System.out.println("round " + round);
+            sort("generic", keys, MemorySegmentUtils.keyComparator(0));
+            sort("fixed", keys, MemorySegmentUtils.keyComparator(keyBytes));
+            run("generic", keys, countLookups, 0);
+            run("fixed", keys, countLookups, keyBytes);
+        }
+    }
+
+    private static void sort(String name, MemorySegment[] keys, Comparator<MemorySegment> comparator) {
+        MemorySegment[] copy = keys.clone();
+        long start = System.nanoTime();
+        Arrays.sort(copy, comparator);
+        report(name + " sort", copy.length, start);
+    }
+
+    private static void run(String name, MemorySegment[] keys, int countLookups, int fixedKeyBytes)
+            throws IOException {
+        Path path = Files.createTempDirectory("fixed-key-benchmark");
+        Config config = new Config(path, 0).withFixedKeyBytes(fixedKeyBytes);
+        MemorySegment value = MemorySegment.ofArray(new byte[Long.BYTES]);
+        try {
+            try (LSMDao dao = new LSMDao(config)) {
+                long start = System.nanoTime();
+                for (MemorySegment key : keys) {
+                    dao.upsert(new BaseEntry<>(key, value));
+                }
+                report(name + " upsert", keys.length, start);
+            }
+
+            try (LSMDao dao = new LSMDao(config)) {
+                SplittableRandom random = new SplittableRandom(SEED);
+                long start = System.nanoTime();
+                for (int i = 0; i < countLookups; ++i) {
+                    dao.get(keys[random.nextInt(keys.length)]);
+                }
+                report(name + " get", countLookups, start);
+
+                start = System.nanoTime();
+                int count = 0;
+                for (Iterator<Entry<MemorySegment>> iterator = dao.all(); iterator.hasNext(); iterator.next()) {
+                    ++count;
+                }
+                report(name + " scan", count, start);
+                System.out.printf("%-16s %10d bytes%n", name + " size", dao.sizeBytes());
+            }
+        } finally {
+            FileUtils.deleteRecursively(path);
+        }
+    }
+
+    private static MemorySegment[] randomKeys(int count, int keyBytes) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        MemorySegment[] keys = new MemorySegment[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = MemorySegment.ofArray(new byte[keyBytes]);
+            for (long offset = 0; offset + Long.BYTES <= keyBytes; offset += Long.BYTES) {
+                keys[i].set(BIG_ENDIAN_LONG, offset, random.nextLong());
+            }
+        }
+        return keys;
+    }
+
+    private static void report(String name, long operations, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%-16s %10d ops %8.3f s %12.0f ops/s%n", name, operations, seconds, operations / seconds);
+    }
+
+    private FixedKeyBenchmark() {
+    }
+}
@@ -1,49 +1,136 @@
 package com.holeyko.dao;
 
+import com.holeyko.cache.RowCache;
 import com.holeyko.entry.Entry;
+import com.holeyko.entry.RangeTombstones;
+import com.holeyko.iterators.AbbreviatedKeyIterator;
 import com.holeyko.iterators.EntrySkipNullsIterator;
 import com.holeyko.iterators.FutureIterator;
 import com.holeyko.iterators.GatheringIterator;
+import com.holeyko.iterators.KeyRangeSpliterator;
 import com.holeyko.iterators.LazyIterator;
 import com.holeyko.iterators.PriorityIterator;
 import com.holeyko.memtable.MemoryTable;
 import com.holeyko.sstable.SSTableManager;
+import com.holeyko.sstable.SSTableProperties;
 import com.holeyko.utils.MemorySegmentUtils;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class LSMDao implements Dao<MemorySegment, Entry<MemorySegment>> {
     private final MemoryTable memTable;
     private final SSTableManager ssTableManager;
+    private final int fixedKeyBytes;
+    private final Comparator<MemorySegment> keyComparator;
+    private final RowCache rowCache;
 
     public LSMDao() throws IOException {
         this(null);
     }
 
     public LSMDao(Config config) throws IOException {
-        this.ssTableManager = new SSTableManager(config.basePath());
+        this.ssTableManager = new SSTableManager(config);
         long flushThresholdBytes = config.flushThresholdBytes();
         if (flushThresholdBytes == 0) {
             flushThresholdBytes = Long.MAX_VALUE / 2;
         }
-        this.memTable = new MemoryTable(ssTableManager, flushThresholdBytes);
+        this.fixedKeyBytes = config.fixedKeyBytes();
+        this.keyComparator = MemorySegmentUtils.keyComparator(fixedKeyBytes);
+        this.memTable = new MemoryTable(ssTableManager, flushThresholdBytes, keyComparator);
+        this.rowCache = config.rowCacheBytes() == 0
+                ? null
+                : new RowCache(config.rowCacheBytes(), config.rowCacheAbsent());
     }
 
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
+        // Version of the row cache is taken before the memory table is read,
+        // so the fill is refused if an upsert of the key is missed by the lookup
+        long cacheVersion = rowCache == null ? 0 : rowCache.version(key);
         Entry<MemorySegment> result = memTable.get(key);
 
         if (result == null && existsSSTableManager()) {
-            result = ssTableManager.load(key);
+            result = loadFromSSTables(key, cacheVersion);
         }
         return handleDeletededEntry(result);
     }
 
+    private Entry<MemorySegment> loadFromSSTables(MemorySegment key, long cacheVersion) {
+        if (rowCache == null) {
+            return ssTableManager.load(key);
+        }
+
+        Entry<MemorySegment> entry = rowCache.get(key);
+        if (entry == null) {
+            entry = ssTableManager.load(key);
+            rowCache.put(key, entry, cacheVersion);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns entries by keys sorted by key. Absent and deleted keys are skipped.
+     */
+    @Override
+    public List<Entry<MemorySegment>> getAll(Collection<MemorySegment> keys) {
+        List<MemorySegment> sortedKeys = new ArrayList<>(keys);
+        sortedKeys.sort(keyComparator);
+
+        List<Entry<MemorySegment>> entries = new ArrayList<>(sortedKeys.size());
+        List<MemorySegment> missedKeys = new ArrayList<>();
+        List<Integer> missedIndexes = new ArrayList<>();
+        List<Long> missedCacheVersions = new ArrayList<>();
+        MemorySegment prevKey = null;
+        for (MemorySegment key : sortedKeys) {
+            if (prevKey != null && keyComparator.compare(prevKey, key) == 0) {
+                continue;
+            }
+            prevKey = key;
+
+            long cacheVersion = rowCache == null ? 0 : rowCache.version(key);
+            Entry<MemorySegment> entry = memTable.get(key);
+            if (entry == null && rowCache != null) {
+                entry = rowCache.get(key);
+            }
+            if (entry == null) {
+                missedKeys.add(key);
+                missedIndexes.add(entries.size());
+                missedCacheVersions.add(cacheVersion);
+            }
+            entries.add(entry);
+        }
+
+        if (!missedKeys.isEmpty() && existsSSTableManager()) {
+            List<Entry<MemorySegment>> loaded = ssTableManager.load(missedKeys);
+            for (int i = 0; i < loaded.size(); ++i) {
+                entries.set(missedIndexes.get(i), loaded.get(i));
+                if (rowCache != null) {
+                    rowCache.put(missedKeys.get(i), loaded.get(i), missedCacheVersions.get(i));
+                }
+            }
+        }
+
+        List<Entry<MemorySegment>> result = new ArrayList<>(entries.size());
+        for (Entry<MemorySegment> entry : entries) {
+            Entry<MemorySegment> aliveEntry = handleDeletededEntry(entry);
+            if (aliveEntry != null) {
+                result.add(aliveEntry);
+            }
+        }
+        return result;
+    }
+
     @Override
     public Iterator<Entry<MemorySegment>> allFrom(MemorySegment from) {
         return get(from, null);
@@ -61,11 +148,43 @@ public class LSMDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        return makeIteratorWithSkipNulls(from, to);
+        return makeIteratorWithSkipNulls(from, to, false, null);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> getDescending(MemorySegment from, MemorySegment to) {
+        return makeIteratorWithSkipNulls(from, to, true, null);
+    }
+
+    /**
+     * Returns ordered iterator of all entries with keys which start with the prefix.
+     * If prefix extractor is configured, SSTables without the prefix are skipped by their prefix Bloom filters.
+     * @param prefix prefix of keys
+     * @return entries with keys starting with prefix
+     */
+    public Iterator<Entry<MemorySegment>> prefix(MemorySegment prefix) {
+        return makeIteratorWithSkipNulls(prefix, MemorySegmentUtils.prefixSuccessor(prefix), false, prefix);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> allDescending() {
+        return getDescending(null, null);
+    }
+
+    @Override
+    public Stream<Entry<MemorySegment>> stream(MemorySegment from, MemorySegment to) {
+        KeyRangeSpliterator spliterator = new KeyRangeSpliterator(
+                from,
+                to,
+                this::get,
+                ssTableManager::findSplitKey,
+                ssTableManager::countEntries
+        );
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
     }
 
     private Entry<MemorySegment> handleDeletededEntry(Entry<MemorySegment> entry) {
-        if (entry == null || entry.value() == null) {
+        if (entry == null || entry.value() == null || entry.isExpired()) {
             return null;
         }
         return entry;
@@ -73,45 +192,79 @@ public class LSMDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     private FutureIterator<Entry<MemorySegment>> makeIteratorWithSkipNulls(
             MemorySegment from,
-            MemorySegment to
+            MemorySegment to,
+            boolean descending,
+            MemorySegment prefix
     ) {
-        Iterator<Entry<MemorySegment>> memoryIterator = memTable.get(from, to);
-        if (!existsSSTableManager() || ssTableManager.size() == 0) {
+        Iterator<Entry<MemorySegment>> memoryIterator = memTable.get(from, to, descending);
+        if (!existsSSTableManager() || ssTableManager.isReady() && ssTableManager.size() == 0) {
             return new EntrySkipNullsIterator(memoryIterator);
         }
 
         int priority = 0;
-        List<FutureIterator<Entry<MemorySegment>>> loadedIterators = ssTableManager.load(from, to);
-        List<PriorityIterator<Entry<MemorySegment>>> priorityIterators = new ArrayList<>();
+        RangeTombstones memoryRangeTombstones = memTable.rangeTombstones();
+        List<FutureIterator<Entry<MemorySegment>>> loadedIterators = prefix == null
+                ? ssTableManager.load(from, to, descending, memoryRangeTombstones)
+                : ssTableManager.loadPrefix(prefix, from, to, descending, memoryRangeTombstones);
+        List<AbbreviatedKeyIterator> priorityIterators = new ArrayList<>();
 
         for (FutureIterator<Entry<MemorySegment>> it : loadedIterators) {
-            priorityIterators.add(new PriorityIterator<>(it, priority++));
+            priorityIterators.add(new AbbreviatedKeyIterator(it, priority++));
         }
         if (memoryIterator.hasNext()) {
-            priorityIterators.add(new PriorityIterator<>(new LazyIterator<>(memoryIterator), priority));
+            priorityIterators.add(new AbbreviatedKeyIterator(new LazyIterator<>(memoryIterator), priority));
         }
 
+        Comparator<AbbreviatedKeyIterator> keyOrder = AbbreviatedKeyIterator.comparator(keyComparator);
+        if (descending) {
+            keyOrder = keyOrder.reversed();
+        }
+        Comparator<PriorityIterator<?>> priorityOrder = Comparator.comparingInt(PriorityIterator::getPriority);
+
         GatheringIterator<Entry<MemorySegment>> gatheringIterator = new GatheringIterator<>(
                 priorityIterators,
-                Comparator.comparing(
-                        (PriorityIterator<Entry<MemorySegment>> it) -> it.showNext().key(),
-                        MemorySegmentUtils::compareMemorySegments
-                ).thenComparing(Comparator.comparingInt((PriorityIterator<?> it) -> it.getPriority()).reversed()),
-                Comparator.comparing(Entry::key, MemorySegmentUtils::compareMemorySegments)
+                keyOrder.thenComparing(priorityOrder.reversed()),
+                Comparator.comparing(Entry::key, keyComparator)
         );
 
         return new EntrySkipNullsIterator(gatheringIterator);
     }
 
+    /**
+     * @throws IllegalArgumentException if keys have fixed size and the entry's key has another size
+     */
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        memTable.upsert(entry);
+        if (fixedKeyBytes != 0 && entry.key().byteSize() != fixedKeyBytes) {
+            throw new IllegalArgumentException(
+                    "Key must have %d bytes, but has %d".formatted(fixedKeyBytes, entry.key().byteSize())
+            );
+        }
+        try {
+            memTable.upsert(entry);
+        } finally {
+            // The entry can be added even if the memory table is out of memory
+            if (rowCache != null) {
+                rowCache.invalidate(entry.key());
+            }
+        }
+    }
+
+    @Override
+    public void deleteRange(MemorySegment from, MemorySegment to) {
+        memTable.deleteRange(from, to);
+        if (rowCache != null) {
+            rowCache.invalidateAll();
+        }
     }
 
     @Override
     public void close() throws IOException {
-        memTable.close();
-        ssTableManager.close();
+        try {
+            memTable.close();
+        } finally {
+            ssTableManager.close();
+        }
     }
 
     @Override
@@ -119,6 +272,42 @@ public class LSMDao implements Dao<MemorySegment, Entry<MemorySegment>> {
         memTable.flush(false);
     }
 
+    /**
+     * Flushes the memory table and waits until its entries are saved into SSTable.
+     * @throws IOException if the flush was failed
+     */
+    public void flushAndWait() throws IOException {
+        memTable.flushAndWait();
+    }
+
+    /**
+     * Flushes the memory table and creates a consistent copy of the storage in the empty or absent directory
+     * by hard links of its immutable files. The copy can be opened as a separate Dao.
+     */
+    public void checkpoint(Path target) throws IOException {
+        memTable.flushAndWait();
+        ssTableManager.checkpoint(target);
+    }
+
+    /**
+     * Adds SSTable files built by {@link com.holeyko.sstable.SSTableWriter} bypassing the memory table.
+     * The memory table is flushed before, so ingested entries are newer than all entries upserted before the call,
+     * later files are newer than earlier ones. Files stay in place, the storage gets their hard links or copies.
+     * @param checkOverlap whether to refuse files which key ranges overlap each other or stored SSTables
+     * @throws IllegalArgumentException if checkOverlap is set and files overlap
+     */
+    public void ingest(List<Path> files, boolean checkOverlap) throws IOException {
+        memTable.flushAndWait();
+        ssTableManager.ingest(files, checkOverlap);
+        if (rowCache != null) {
+            rowCache.invalidateAll();
+        }
+    }
+
+    public void ingest(List<Path> files) throws IOException {
+        ingest(files, false);
+    }
+
     @Override
     public void compact() throws IOException {
         if (!existsSSTableManager()) {
@@ -128,6 +317,65 @@ public class LSMDao implements Dao<MemorySegment, Entry<MemorySegment>> {
         ssTableManager.compact();
     }
 
+    /**
+     * Starts migration of SSTables which became cold by the tiering policy to the cold directory.
+     * It also runs after flushes, compactions and periodically, so it's needed only to migrate at once.
+     */
+    public void migrateColdSSTables() {
+        ssTableManager.migrateColdSSTables();
+    }
+
+    /**
+     * Changes limit of bytes per second written by flushes and compaction, 0 means no limit.
+     */
+    public void setWriteRateLimit(long bytesPerSecond) {
+        ssTableManager.setWriteRateLimit(bytesPerSecond);
+    }
+
+    /**
+     * Returns total size of SSTables' files, memory table and value log files aren't counted.
+     */
+    public long sizeBytes() {
+        return ssTableManager.sizeBytes();
+    }
+
+    /**
+     * Checks whether all SSTables are opened. Reads can be served before, but they may wait for older SSTables.
+     */
+    public boolean isReady() {
+        return ssTableManager.isReady();
+    }
+
+    /**
+     * Returns future which is completed when all SSTables are opened
+     * or completed exceptionally if some of them can't be opened.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ssTableManager.whenReady();
+    }
+
+    /**
+     * Returns statistics of SSTables by their ids from the oldest SSTable to the newest one.
+     */
+    public Map<Long, SSTableProperties> ssTableProperties() {
+        return ssTableManager.properties();
+    }
+
+    /**
+     * Returns statistics of the row cache or null if it's disabled.
+     */
+    public RowCache.Stats rowCacheStats() {
+        return rowCache == null ? null : rowCache.stats();
+    }
+
+    /**
+     * Returns a key which splits stored entries with keys in [from;to) into two nearly equal halves.
+     * @return split key or null if there are too few entries in SSTables
+     */
+    public MemorySegment findSplitKey(MemorySegment from, MemorySegment to) {
+        return ssTableManager.findSplitKey(from, to);
+    }
+
     private boolean existsSSTableManager() {
         return ssTableManager != null;
     }
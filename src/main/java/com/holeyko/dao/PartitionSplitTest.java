@@ -0,0 +1,151 @@
+package com.holeyko.dao;
+
+import com.holeyko.entry.BaseEntry;
+import com.holeyko.entry.Entry;
+import com.holeyko.exception.MemoryTableOutOfMemoryException;
+import com.holeyko.utils.FileUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Checks splits of {@link PartitionedLSMDao} racing with upserts: writers overwrite their own keys while
+ * partitions are split in background, then the storage is reopened and every acknowledged value is read back.
+ * Fails if a value is lost or stale or no partition was split.
+ * Arguments: duration of writes in milliseconds, count of writers.
+ */
+public final class PartitionSplitTest {
+    private static final long FLUSH_THRESHOLD_BYTES = 256 * 1024;
+    private static final int INITIAL_PARTITIONS = 2;
+    private static final long MAX_PARTITION_BYTES = 1024 * 1024;
+    private static final int KEYS_PER_WRITER = 200_000;
+    private static final String VALUE_PADDING = "v".repeat(200);
+    private static final long RETRY_DELAY_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        long durationMillis = args.length > 0 ? Long.parseLong(args[0]) : 10_000;
+        int countWriters = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        Path path = Files.createTempDirectory("partition-split-test");
+        try {
+            // Writers own disjoint keys, so the last acknowledged value of every key is known
+            NavigableMap<String, String> expected = new ConcurrentSkipListMap<>();
+            try (PartitionedLSMDao dao = open(path)) {
+                write(dao, expected, durationMillis, countWriters);
+                check("before reopen", dao, expected);
+            }
+
+            // Splits which were scheduled by the writes finish on close, so partitions are counted after reopen
+            int partitions;
+            try (PartitionedLSMDao dao = open(path)) {
+                partitions = dao.partitionsCount();
+                check("after reopen", dao, expected);
+            }
+
+            if (partitions <= INITIAL_PARTITIONS) {
+                fail("no partition was split, partitions " + partitions);
+            }
+            System.out.println("OK: partitions " + partitions + ", keys " + expected.size());
+        } finally {
+            FileUtils.deleteRecursively(path);
+        }
+    }
+
+    private static PartitionedLSMDao open(Path path) throws Exception {
+        return new PartitionedLSMDao(new Config(path, FLUSH_THRESHOLD_BYTES), INITIAL_PARTITIONS, MAX_PARTITION_BYTES);
+    }
+
+    private static void write(
+            PartitionedLSMDao dao,
+            Map<String, String> expected,
+            long durationMillis,
+            int countWriters
+    ) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<>(countWriters);
+        for (int writer = 0; writer < countWriters; ++writer) {
+            int writerId = writer;
+            writers.add(Thread.ofPlatform().start(() -> {
+                SplittableRandom random = new SplittableRandom(writerId);
+                for (long version = 0; !stop.get(); ++version) {
+                    String key = String.format("key%08d", random.nextInt(KEYS_PER_WRITER) * countWriters + writerId);
+                    String value = version + VALUE_PADDING;
+                    upsert(dao, key, value);
+                    expected.put(key, value);
+                }
+            }));
+        }
+        Thread.sleep(durationMillis);
+        stop.set(true);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+    }
+
+    /**
+     * Retries the upsert while the memory table is out of memory, the same value can be written twice.
+     */
+    private static void upsert(PartitionedLSMDao dao, String key, String value) {
+        while (true) {
+            try {
+                dao.upsert(new BaseEntry<>(segment(key), segment(value)));
+                return;
+            } catch (MemoryTableOutOfMemoryException e) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(ie);
+                }
+            }
+        }
+    }
+
+    private static void check(String stage, PartitionedLSMDao dao, NavigableMap<String, String> expected) {
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Entry<MemorySegment> actual = dao.get(segment(entry.getKey()));
+            if (actual == null || !string(actual.value()).equals(entry.getValue())) {
+                fail(stage + ": key " + entry.getKey() + " has value "
+                        + (actual == null ? null : string(actual.value())) + " instead of " + entry.getValue());
+            }
+        }
+
+        Iterator<String> expectedKeys = expected.keySet().iterator();
+        for (Iterator<Entry<MemorySegment>> iterator = dao.all(); iterator.hasNext(); ) {
+            String key = string(iterator.next().key());
+            String expectedKey = expectedKeys.hasNext() ? expectedKeys.next() : null;
+            if (!key.equals(expectedKey)) {
+                fail(stage + ": scan returned " + key + " instead of " + expectedKey);
+            }
+        }
+        if (expectedKeys.hasNext()) {
+            fail(stage + ": scan missed " + expectedKeys.next());
+        }
+    }
+
+    private static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+
+    private PartitionSplitTest() {
+    }
+}
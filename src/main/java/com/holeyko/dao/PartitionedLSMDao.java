@@ -0,0 +1,834 @@
+package com.holeyko.dao;
+
+import com.holeyko.entry.BaseEntry;
+import com.holeyko.entry.Entry;
+import com.holeyko.entry.ExpiringEntry;
+import com.holeyko.entry.RangeTombstone;
+import com.holeyko.exception.MemoryTableOutOfMemoryException;
+import com.holeyko.iterators.ConcatenatingIterator;
+import com.holeyko.iterators.LazyIterator;
+import com.holeyko.sstable.SSTableOptions;
+import com.holeyko.sstable.SSTableWriter;
+import com.holeyko.sstable.TieringPolicy;
+import com.holeyko.utils.FileUtils;
+import com.holeyko.utils.IteratorUtils;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Dao which splits keys into ranges, every range is stored by its own {@link LSMDao}
+ * in subdirectory of the base path, so writes to different ranges don't contend.
+ * Scans of all kinds are delegated to partitions which ranges overlap the scanned range.
+ * Partition which SSTables grow bigger than maxPartitionBytes is split by its median key in background.
+ * Boundaries of partitions are stored in manifest file which is replaced atomically.
+ */
+public class PartitionedLSMDao implements Dao<MemorySegment, Entry<MemorySegment>> {
+    private static final String MANIFEST_FILE_NAME = "partitions";
+    private static final String PARTITION_DIR_PREFIX = "partition-";
+    private static final String SPLIT_FILE_NAME = "split";
+    private static final int MAX_REPLAY_ROUNDS = 4;
+    private static final int SPLIT_STRIPES = 64;
+    private static final int SIZE_CHECK_PERIOD = 4096;
+    private static final MemorySegment MIN_KEY = MemorySegment.ofArray(new byte[0]);
+
+    private final Logger log = Logger.getLogger(PartitionedLSMDao.class.getName());
+
+    private final Config config;
+    private final long maxPartitionBytes;
+    private final AtomicLong nextPartitionId = new AtomicLong();
+    private final ExecutorService splitWorker = Executors.newSingleThreadExecutor();
+    // Partitions by their lower bounds, the map is replaced on split
+    private volatile NavigableMap<MemorySegment, Partition> partitions;
+    // Split partitions which are still read by iterators
+    private final Set<Partition> retiredPartitions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param initialPartitions count of partitions for a new storage, they split keys evenly by the first byte
+     * @param maxPartitionBytes size of partition's SSTables after which it's split, 0 disables splitting
+     */
+    public PartitionedLSMDao(Config config, int initialPartitions, long maxPartitionBytes) throws IOException {
+        if (initialPartitions <= 0 || initialPartitions > 256) {
+            throw new IllegalArgumentException("Count of partitions must be in [1;256]: " + initialPartitions);
+        }
+
+        this.config = config;
+        this.maxPartitionBytes = maxPartitionBytes;
+        Files.createDirectories(config.basePath());
+
+        Map<Long, MemorySegment> lowerBounds = readManifest();
+        if (lowerBounds == null) {
+            lowerBounds = new HashMap<>();
+            for (int i = 0; i < initialPartitions; ++i) {
+                lowerBounds.put(
+                        (long) i,
+                        i == 0 ? MIN_KEY : MemorySegment.ofArray(new byte[] {(byte) (i * 256 / initialPartitions)})
+                );
+            }
+            writeManifest(lowerBounds);
+        }
+        removeUnknownPartitions(config.basePath(), lowerBounds.keySet());
+        if (config.tieringPolicy() != null && Files.exists(config.tieringPolicy().coldPath())) {
+            removeUnknownPartitions(config.tieringPolicy().coldPath(), lowerBounds.keySet());
+        }
+
+        List<Map.Entry<Long, MemorySegment>> sortedBounds = new ArrayList<>(lowerBounds.entrySet());
+        sortedBounds.sort(Map.Entry.comparingByValue(MemorySegmentUtils::compareMemorySegments));
+        NavigableMap<MemorySegment, Partition> loaded = createMap();
+        for (int i = 0; i < sortedBounds.size(); ++i) {
+            long id = sortedBounds.get(i).getKey();
+            MemorySegment to = i + 1 < sortedBounds.size() ? sortedBounds.get(i + 1).getValue() : null;
+            loaded.put(sortedBounds.get(i).getValue(), openPartition(id, sortedBounds.get(i).getValue(), to));
+            nextPartitionId.accumulateAndGet(id + 1, Math::max);
+        }
+        this.partitions = loaded;
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        return withPartition(key, partition -> partition.dao.get(key));
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        return new ConcatenatingIterator<>(new PartitionIterators(from, to, false, LSMDao::get));
+    }
+
+    /**
+     * Returns entries in descending order, partitions are read from the last one by their own descending iterators.
+     */
+    @Override
+    public Iterator<Entry<MemorySegment>> getDescending(MemorySegment from, MemorySegment to) {
+        return new ConcatenatingIterator<>(new PartitionIterators(from, to, true, LSMDao::getDescending));
+    }
+
+    /**
+     * Returns stream which is split by partitions in {@code parallel()} mode. Every part reads its partitions
+     * lazily like {@link #get(MemorySegment, MemorySegment)}, so partitions split meanwhile are handled.
+     */
+    @Override
+    public Stream<Entry<MemorySegment>> stream(MemorySegment from, MemorySegment to) {
+        MemorySegment lower = from == null ? MIN_KEY : from;
+        List<Partition> parts = new ArrayList<>();
+        NavigableMap<MemorySegment, Partition> current = partitions;
+        for (Partition partition : current.tailMap(current.floorKey(lower), true).values()) {
+            if (to != null && MemorySegmentUtils.compareMemorySegments(partition.from, to) >= 0) {
+                break;
+            }
+            parts.add(partition);
+        }
+
+        return parts.stream().flatMap(partition -> {
+            MemorySegment partFrom = MemorySegmentUtils.compareMemorySegments(lower, partition.from) > 0
+                    ? lower
+                    : partition.from;
+            Iterator<Entry<MemorySegment>> entries = get(partFrom, min(to, partition.to));
+            return StreamSupport.stream(
+                    Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL),
+                    false
+            ).onClose(() -> IteratorUtils.close(entries));
+        });
+    }
+
+    /**
+     * Returns entries by keys sorted by key. Keys are grouped by the partition of the least pending key
+     * while it can't be split, so keys of a split partition are grouped again by the new ones.
+     */
+    @Override
+    public List<Entry<MemorySegment>> getAll(Collection<MemorySegment> keys) {
+        NavigableSet<MemorySegment> pendingKeys = new TreeSet<>(MemorySegmentUtils::compareMemorySegments);
+        pendingKeys.addAll(keys);
+
+        List<Entry<MemorySegment>> entries = new ArrayList<>(pendingKeys.size());
+        while (!pendingKeys.isEmpty()) {
+            entries.addAll(withPartition(pendingKeys.first(), partition -> {
+                Set<MemorySegment> partitionKeys = partition.to == null
+                        ? pendingKeys
+                        : pendingKeys.headSet(partition.to, false);
+                List<Entry<MemorySegment>> found = partition.dao.getAll(partitionKeys);
+                partitionKeys.clear();
+                return found;
+            }));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns ordered iterator of all entries with keys which start with the prefix.
+     * Every partition which range has such keys is scanned by {@link LSMDao#prefix}, so prefix Bloom filters
+     * of its SSTables are used. Partition stores only keys of its range, so it returns only them.
+     */
+    public Iterator<Entry<MemorySegment>> prefix(MemorySegment prefix) {
+        return new ConcatenatingIterator<>(new PartitionIterators(
+                prefix,
+                MemorySegmentUtils.prefixSuccessor(prefix),
+                false,
+                (dao, from, to) -> dao.prefix(prefix)
+        ));
+    }
+
+    @Override
+    public void upsert(Entry<MemorySegment> entry) {
+        Partition written = withPartition(entry.key(), partition -> {
+            partition.upsert(entry);
+            return partition;
+        });
+
+        if (maxPartitionBytes > 0 && written.writesSinceSizeCheck.incrementAndGet() % SIZE_CHECK_PERIOD == 0
+                && written.dao.sizeBytes() > maxPartitionBytes) {
+            splitWorker.execute(() -> split(written));
+        }
+    }
+
+    @Override
+    public void deleteRange(MemorySegment from, MemorySegment to) {
+        MemorySegment curFrom = from == null ? MIN_KEY : from;
+        while (true) {
+            MemorySegment partitionFrom = curFrom;
+            MemorySegment partitionTo = withPartition(partitionFrom, partition -> {
+                partition.deleteRange(partitionFrom, min(to, partition.to));
+                return partition.to;
+            });
+            if (partitionTo == null || (to != null && MemorySegmentUtils.compareMemorySegments(partitionTo, to) >= 0)) {
+                return;
+            }
+            curFrom = partitionTo;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (Partition partition : partitions.values()) {
+            // Discarded partition was split, its entries are in the new ones
+            if (!partition.acquire()) {
+                continue;
+            }
+            try {
+                partition.dao.flush();
+            } finally {
+                release(partition);
+            }
+        }
+    }
+
+    @Override
+    public void compact() throws IOException {
+        for (Partition partition : partitions.values()) {
+            if (!partition.acquire()) {
+                continue;
+            }
+            try {
+                partition.dao.compact();
+            } finally {
+                release(partition);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        splitWorker.close();
+        // Every partition is closed even if flushing of another one was failed
+        IOException failure = null;
+        for (Partition partition : partitions.values()) {
+            try {
+                partition.dao.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        // Iterators of split partitions are abandoned, they are invalid after closing like iterators of others
+        for (Partition partition : retiredPartitions) {
+            if (retiredPartitions.remove(partition)) {
+                discardPartition(partition);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Checks whether SSTables of all partitions are opened.
+     */
+    public boolean isReady() {
+        for (Partition partition : partitions.values()) {
+            if (!partition.dao.isReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns future which is completed when SSTables of all current partitions are opened.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return CompletableFuture.allOf(partitions.values().stream()
+                .map(partition -> partition.dao.whenReady())
+                .toArray(CompletableFuture[]::new));
+    }
+
+    public int partitionsCount() {
+        return partitions.size();
+    }
+
+    /**
+     * Runs the action with the partition of the key. Partition can't be split while the action runs.
+     */
+    private <T> T withPartition(MemorySegment key, Function<Partition, T> action) {
+        MemorySegment partitionKey = key == null ? MIN_KEY : key;
+        return withPartition(currentPartitions -> currentPartitions.floorEntry(partitionKey).getValue(), action);
+    }
+
+    /**
+     * Runs the action with the partition which is found by the locator in the current map.
+     * If the partition was split before it's locked, it's looked up again in the new map.
+     */
+    private <T> T withPartition(
+            Function<NavigableMap<MemorySegment, Partition>, Partition> locator,
+            Function<Partition, T> action
+    ) {
+        while (true) {
+            Partition partition = locator.apply(partitions);
+            partition.lock.readLock().lock();
+            try {
+                if (!partition.retired) {
+                    return action.apply(partition);
+                }
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Copies entries of the partition into two new ones divided by the median key and replaces it by them.
+     * Entries are copied while the partition is written, writes made meanwhile are logged and replayed.
+     * Writes to the partition wait only while the rest of the log is replayed and flushed
+     * and the partition map is replaced. The partition is discarded when iterators over it are exhausted or closed.
+     */
+    private void split(Partition partition) {
+        if (partition.retired || partition.dao.sizeBytes() <= maxPartitionBytes) {
+            return;
+        }
+
+        MemorySegment splitKey = partition.dao.findSplitKey(partition.from, partition.to);
+        if (splitKey == null || MemorySegmentUtils.compareMemorySegments(splitKey, partition.from) <= 0) {
+            return;
+        }
+
+        // Writers hold the read lock, so every write after this point is logged
+        partition.lock.writeLock().lock();
+        try {
+            if (partition.retired) {
+                return;
+            }
+            partition.splitWrites = new ConcurrentLinkedQueue<>();
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+
+        Partition left = null;
+        Partition right = null;
+        try {
+            left = openPartition(nextPartitionId.getAndIncrement(), partition.from, splitKey);
+            right = openPartition(nextPartitionId.getAndIncrement(), splitKey, partition.to);
+            copyEntries(partition, left);
+            copyEntries(partition, right);
+            // Writes can outpace replaying, so the log is replayed while it's long, the rest is replayed under the lock
+            int replayed = replayWrites(partition, left, right);
+            for (int round = 1; round < MAX_REPLAY_ROUNDS && replayed > SIZE_CHECK_PERIOD; ++round) {
+                replayed = replayWrites(partition, left, right);
+            }
+            left.dao.flushAndWait();
+            right.dao.flushAndWait();
+
+            partition.lock.writeLock().lock();
+            try {
+                replayWrites(partition, left, right);
+                // Entries must be saved before the manifest refers to the new partitions
+                left.dao.flushAndWait();
+                right.dao.flushAndWait();
+
+                NavigableMap<MemorySegment, Partition> newPartitions = createMap();
+                newPartitions.putAll(partitions);
+                newPartitions.put(left.from, left);
+                newPartitions.put(right.from, right);
+                Map<Long, MemorySegment> lowerBounds = new HashMap<>();
+                for (Partition newPartition : newPartitions.values()) {
+                    lowerBounds.put(newPartition.id, newPartition.from);
+                }
+                writeManifest(lowerBounds);
+
+                partitions = newPartitions;
+                retiredPartitions.add(partition);
+                partition.retired = true;
+            } finally {
+                partition.splitWrites = null;
+                partition.lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            partition.splitWrites = null;
+            log.log(Level.WARNING, "Splitting was failed for partition[id=%d]".formatted(partition.id), e);
+            // Directories of new partitions aren't in the manifest, so they are removed on the next start anyway
+            discardPartition(left);
+            discardPartition(right);
+            return;
+        }
+
+        // The map's reference
+        release(partition);
+    }
+
+    private void release(Partition partition) {
+        if (partition.references.decrementAndGet() == 0 && retiredPartitions.remove(partition)) {
+            discardPartition(partition);
+        }
+    }
+
+    private void discardPartition(Partition partition) {
+        if (partition == null) {
+            return;
+        }
+
+        try {
+            partition.dao.close();
+            deleteDirectory(partitionPath(partition.id));
+            if (config.tieringPolicy() != null) {
+                deleteDirectory(coldPartitionPath(partition.id));
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Deleting was failed for partition[id=%d]".formatted(partition.id), e);
+        }
+    }
+
+    /**
+     * Writes live entries of the source partition in the target one's range into SSTable file
+     * and ingests it into the empty target. Values are written inline,
+     * because value log files of the source partition are removed with it.
+     */
+    private void copyEntries(Partition source, Partition target) throws IOException {
+        Path file = FileUtils.makePath(partitionPath(target.id), SPLIT_FILE_NAME, FileUtils.TMP_FILE_EXT);
+        try (SSTableWriter writer = new SSTableWriter(file, SSTableOptions.of(config))) {
+            Iterator<Entry<MemorySegment>> entries = source.dao.get(target.from, target.to);
+            try {
+                while (entries.hasNext()) {
+                    writer.add(entries.next());
+                }
+            } finally {
+                IteratorUtils.close(entries);
+            }
+            if (writer.size() == 0) {
+                return;
+            }
+
+            writer.finish();
+            target.dao.ingest(List.of(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Applies writes which were logged by the source partition before the call to the new partitions in their order.
+     * @return count of replayed writes
+     */
+    private static int replayWrites(Partition source, Partition left, Partition right) throws IOException {
+        Queue<LoggedWrite> writes = source.splitWrites;
+        writes.add(LoggedWrite.ROUND_END);
+        int count = 0;
+        for (LoggedWrite write = writes.poll(); write != LoggedWrite.ROUND_END; write = writes.poll()) {
+            ++count;
+            if (write.entry() != null) {
+                Entry<MemorySegment> entry = write.entry();
+                Partition target = MemorySegmentUtils.compareMemorySegments(entry.key(), left.to) < 0 ? left : right;
+                replay(target, () -> target.dao.upsert(entry));
+            } else {
+                replayRange(left, write.range());
+                replayRange(right, write.range());
+            }
+        }
+        return count;
+    }
+
+    private static void replayRange(Partition target, RangeTombstone range) throws IOException {
+        MemorySegment from = MemorySegmentUtils.compareMemorySegments(range.from(), target.from) >= 0
+                ? range.from()
+                : target.from;
+        MemorySegment to = min(range.to(), target.to);
+        if (to == null || MemorySegmentUtils.compareMemorySegments(from, to) < 0) {
+            replay(target, () -> target.dao.deleteRange(from, to));
+        }
+    }
+
+    /**
+     * If the target's memory table is out of memory, waits for its flush, the write is applied anyway.
+     */
+    private static void replay(Partition target, Runnable write) throws IOException {
+        try {
+            write.run();
+        } catch (MemoryTableOutOfMemoryException e) {
+            target.dao.flushAndWait();
+        }
+    }
+
+    /**
+     * Copies the entry to the heap, because memory of the written entry isn't owned by the storage.
+     */
+    private static Entry<MemorySegment> copy(Entry<MemorySegment> entry) {
+        MemorySegment key = copy(entry.key());
+        MemorySegment value = entry.value() == null ? null : copy(entry.value());
+        return entry.expiresAt() == Entry.NEVER_EXPIRES
+                ? new BaseEntry<>(key, value)
+                : new ExpiringEntry<>(key, value, entry.expiresAt());
+    }
+
+    private static MemorySegment copy(MemorySegment segment) {
+        return MemorySegment.ofArray(segment.toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    private Partition openPartition(long id, MemorySegment from, MemorySegment to) throws IOException {
+        Config partitionConfig = config.withBasePath(partitionPath(id));
+        if (config.tieringPolicy() != null) {
+            TieringPolicy tieringPolicy = config.tieringPolicy().withColdPath(coldPartitionPath(id));
+            partitionConfig = partitionConfig.withTieringPolicy(tieringPolicy);
+        }
+        return new Partition(id, from, to, new LSMDao(partitionConfig));
+    }
+
+    private Path partitionPath(long id) {
+        return config.basePath().resolve(PARTITION_DIR_PREFIX + id);
+    }
+
+    /**
+     * Returns cold directory of the partition, SSTables of partitions have the same ids.
+     */
+    private Path coldPartitionPath(long id) {
+        return config.tieringPolicy().coldPath().resolve(PARTITION_DIR_PREFIX + id);
+    }
+
+    /**
+     * Returns lower bounds of partitions by their ids or null if there is no manifest.
+     */
+    private Map<Long, MemorySegment> readManifest() throws IOException {
+        Path manifest = config.basePath().resolve(MANIFEST_FILE_NAME);
+        if (Files.notExists(manifest)) {
+            return null;
+        }
+
+        Map<Long, MemorySegment> lowerBounds = new HashMap<>();
+        for (String line : Files.readAllLines(manifest)) {
+            String[] parts = line.split(" ", 2);
+            lowerBounds.put(Long.parseLong(parts[0]), MemorySegment.ofArray(HexFormat.of().parseHex(parts[1])));
+        }
+        return lowerBounds;
+    }
+
+    private void writeManifest(Map<Long, MemorySegment> lowerBounds) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Long, MemorySegment> bound : lowerBounds.entrySet()) {
+            lines.add(bound.getKey() + " " + HexFormat.of().formatHex(bound.getValue().toArray(ValueLayout.JAVA_BYTE)));
+        }
+
+        Path manifest = config.basePath().resolve(MANIFEST_FILE_NAME);
+        Path tmpManifest = FileUtils.makePath(config.basePath(), MANIFEST_FILE_NAME, FileUtils.TMP_FILE_EXT);
+        Files.write(tmpManifest, lines);
+        Files.move(tmpManifest, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Removes directories of partitions which were being created or removed by split when the process stopped.
+     */
+    private static void removeUnknownPartitions(Path directory, Set<Long> knownIds) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (Files.isDirectory(file) && name.startsWith(PARTITION_DIR_PREFIX)
+                        && !knownIds.contains(Long.parseLong(name.substring(PARTITION_DIR_PREFIX.length())))) {
+                    deleteDirectory(file);
+                }
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static MemorySegment min(MemorySegment bound, MemorySegment partitionBound) {
+        if (bound == null) {
+            return partitionBound;
+        }
+        if (partitionBound == null) {
+            return bound;
+        }
+        return MemorySegmentUtils.compareMemorySegments(bound, partitionBound) <= 0 ? bound : partitionBound;
+    }
+
+    private static <T> NavigableMap<MemorySegment, T> createMap() {
+        return new TreeMap<>(MemorySegmentUtils::compareMemorySegments);
+    }
+
+    /**
+     * Iterators of partitions' parts of [from;to) in ascending or descending order. Next partition is looked up
+     * only when the previous one is exhausted, so partitions split meanwhile are handled.
+     */
+    private final class PartitionIterators implements Iterator<Iterator<Entry<MemorySegment>>> {
+        private final MemorySegment from;
+        private final MemorySegment to;
+        private final boolean descending;
+        private final RangeLoader loader;
+        // Bound of the part which isn't read yet: the lower one in ascending order, the upper one in descending
+        private MemorySegment unreadBound;
+        private boolean exhausted;
+
+        private PartitionIterators(MemorySegment from, MemorySegment to, boolean descending, RangeLoader loader) {
+            this.from = from == null ? MIN_KEY : from;
+            this.to = to;
+            this.descending = descending;
+            this.loader = loader;
+            this.unreadBound = descending ? to : this.from;
+            this.exhausted = to != null && MemorySegmentUtils.compareMemorySegments(this.from, to) >= 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !exhausted;
+        }
+
+        @Override
+        public Iterator<Entry<MemorySegment>> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            MemorySegment bound = unreadBound;
+            Function<NavigableMap<MemorySegment, Partition>, Partition> locator = descending
+                    ? currentPartitions -> (bound == null
+                            ? currentPartitions.lastEntry()
+                            : currentPartitions.lowerEntry(bound)).getValue()
+                    : currentPartitions -> currentPartitions.floorEntry(bound).getValue();
+            return withPartition(locator, partition -> {
+                MemorySegment partFrom;
+                MemorySegment partTo;
+                if (descending) {
+                    partFrom = MemorySegmentUtils.compareMemorySegments(from, partition.from) > 0
+                            ? from
+                            : partition.from;
+                    partTo = min(bound, partition.to);
+                    unreadBound = partition.from;
+                    exhausted = MemorySegmentUtils.compareMemorySegments(partition.from, from) <= 0;
+                } else {
+                    partFrom = bound;
+                    partTo = min(to, partition.to);
+                    unreadBound = partition.to;
+                    exhausted = partition.to == null
+                            || to != null && MemorySegmentUtils.compareMemorySegments(partition.to, to) >= 0;
+                }
+                return open(partition, partFrom, partTo);
+            });
+        }
+
+        /**
+         * Opens iterator of the partition's part which holds the partition until it's exhausted or closed.
+         * It's called under the partition's lock.
+         */
+        private Iterator<Entry<MemorySegment>> open(Partition partition, MemorySegment partFrom, MemorySegment partTo) {
+            // The partition isn't retired, so the map's reference is held and it can be acquired
+            partition.acquire();
+            Iterator<Entry<MemorySegment>> entries;
+            try {
+                entries = loader.load(partition.dao, partFrom, partTo);
+            } catch (RuntimeException e) {
+                release(partition);
+                throw e;
+            }
+            if (!entries.hasNext()) {
+                release(partition);
+                return entries;
+            }
+
+            // The reference is released once, when the iterator is exhausted or closed
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable releaseOnce = () -> {
+                if (released.compareAndSet(false, true)) {
+                    release(partition);
+                }
+            };
+            return new LazyIterator<>(
+                    () -> {
+                        Entry<MemorySegment> next = entries.next();
+                        if (!entries.hasNext()) {
+                            releaseOnce.run();
+                        }
+                        return next;
+                    },
+                    entries::hasNext,
+                    () -> {
+                        IteratorUtils.close(entries);
+                        releaseOnce.run();
+                    }
+            );
+        }
+    }
+
+    /**
+     * Opens iterator of the partition's entries with keys in [from;to).
+     */
+    @FunctionalInterface
+    private interface RangeLoader {
+        Iterator<Entry<MemorySegment>> load(LSMDao dao, MemorySegment from, MemorySegment to);
+    }
+
+    /**
+     * Entry or range deletion written to a partition while it's being split, one of them is set.
+     */
+    private record LoggedWrite(Entry<MemorySegment> entry, RangeTombstone range) {
+        // Marks the end of writes which are replayed by one pass over the log
+        static final LoggedWrite ROUND_END = new LoggedWrite(null, null);
+    }
+
+    private static final class Partition {
+        private final long id;
+        private final MemorySegment from;
+        private final MemorySegment to;
+        private final LSMDao dao;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicInteger writesSinceSizeCheck = new AtomicInteger();
+        // The partition map holds one reference, iterators hold the rest. Discarded partition has none
+        private final AtomicInteger references = new AtomicInteger(1);
+        // Writes made while the partition is being split, null otherwise
+        private volatile Queue<LoggedWrite> splitWrites;
+        // Writes of a key are logged in the order they are applied under the key's stripe lock
+        private final Lock[] splitStripes = new Lock[SPLIT_STRIPES];
+        private volatile boolean retired;
+
+        private Partition(long id, MemorySegment from, MemorySegment to, LSMDao dao) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+            this.dao = dao;
+            for (int i = 0; i < SPLIT_STRIPES; ++i) {
+                splitStripes[i] = new ReentrantLock();
+            }
+        }
+
+        /**
+         * Upserts the entry and logs it if the partition is being split. It's called under the read lock.
+         */
+        void upsert(Entry<MemorySegment> entry) {
+            Queue<LoggedWrite> writes = splitWrites;
+            if (writes == null) {
+                dao.upsert(entry);
+                return;
+            }
+
+            Lock stripe = splitStripes[(int) (MemorySegmentUtils.hash(entry.key()) >>> 32) & (SPLIT_STRIPES - 1)];
+            stripe.lock();
+            try {
+                applyLogged(writes, () -> dao.upsert(entry), new LoggedWrite(copy(entry), null));
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        /**
+         * Deletes the range and logs it if the partition is being split. It's called under the read lock.
+         * All stripes are locked, so the deletion is ordered with upserts of its keys.
+         */
+        void deleteRange(MemorySegment from, MemorySegment to) {
+            Queue<LoggedWrite> writes = splitWrites;
+            if (writes == null) {
+                dao.deleteRange(from, to);
+                return;
+            }
+
+            for (Lock stripe : splitStripes) {
+                stripe.lock();
+            }
+            try {
+                RangeTombstone range = new RangeTombstone(copy(from), to == null ? null : copy(to));
+                applyLogged(writes, () -> dao.deleteRange(from, to), new LoggedWrite(null, range));
+            } finally {
+                for (Lock stripe : splitStripes) {
+                    stripe.unlock();
+                }
+            }
+        }
+
+        private static void applyLogged(Queue<LoggedWrite> writes, Runnable write, LoggedWrite logged) {
+            try {
+                write.run();
+            } catch (MemoryTableOutOfMemoryException e) {
+                // The write is applied even if the memory table is out of memory
+                writes.add(logged);
+                throw e;
+            }
+            writes.add(logged);
+        }
+
+        /**
+         * Takes a reference, so the partition isn't closed until it's released.
+         * @return false if the partition is discarded
+         */
+        boolean acquire() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
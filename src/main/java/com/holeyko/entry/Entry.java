@@ -1,7 +1,21 @@
 package com.holeyko.entry;
 
 public interface Entry<D> {
+    long NEVER_EXPIRES = Long.MAX_VALUE;
+
     D key();
 
     D value();
+
+    /**
+     * Returns time in milliseconds since epoch since which the entry is considered deleted.
+     */
+    default long expiresAt() {
+        return NEVER_EXPIRES;
+    }
+
+    default boolean isExpired() {
+        long expiresAt = expiresAt();
+        return expiresAt != NEVER_EXPIRES && expiresAt <= System.currentTimeMillis();
+    }
 }
@@ -0,0 +1,8 @@
+package com.holeyko.entry;
+
+public record ExpiringEntry<Data>(Data key, Data value, long expiresAt) implements Entry<Data> {
+    @Override
+    public String toString() {
+        return "{" + key + ":" + value + ", expiresAt=" + expiresAt + "}";
+    }
+}
@@ -0,0 +1,9 @@
+package com.holeyko.entry;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Range of deleted keys [from;to). Null bounds mean unbounded range.
+ */
+public record RangeTombstone(MemorySegment from, MemorySegment to) {
+}
@@ -0,0 +1,183 @@
+package com.holeyko.entry;
+
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable set of range tombstones kept as sorted disjoint ranges.
+ */
+public final class RangeTombstones {
+    private static final RangeTombstones EMPTY = new RangeTombstones(List.of());
+    private static final long NULL_BOUND_SIZE = -1;
+
+    private final List<RangeTombstone> ranges;
+
+    private RangeTombstones(List<RangeTombstone> ranges) {
+        this.ranges = ranges;
+    }
+
+    public static RangeTombstones empty() {
+        return EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    public List<RangeTombstone> ranges() {
+        return ranges;
+    }
+
+    public RangeTombstones add(RangeTombstone range) {
+        return merge(new RangeTombstones(List.of(range)));
+    }
+
+    public RangeTombstones merge(RangeTombstones other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        List<RangeTombstone> sorted = new ArrayList<>(ranges);
+        sorted.addAll(other.ranges);
+        sorted.sort(Comparator.comparing(RangeTombstone::from, MemorySegmentUtils::compareMemorySegments));
+
+        List<RangeTombstone> merged = new ArrayList<>();
+        RangeTombstone cur = sorted.getFirst();
+        for (RangeTombstone range : sorted.subList(1, sorted.size())) {
+            if (isBeforeUpperBound(range.from(), cur.to()) || compareUpperBounds(range.from(), cur.to()) == 0) {
+                cur = new RangeTombstone(cur.from(), maxUpperBound(cur.to(), range.to()));
+            } else {
+                merged.add(cur);
+                cur = range;
+            }
+        }
+        merged.add(cur);
+
+        return new RangeTombstones(List.copyOf(merged));
+    }
+
+    public boolean covers(MemorySegment key) {
+        int l = -1;
+        int r = ranges.size();
+        while (l + 1 < r) {
+            int mid = (l + r) / 2;
+            if (MemorySegmentUtils.compareMemorySegments(ranges.get(mid).from(), key) <= 0) {
+                l = mid;
+            } else {
+                r = mid;
+            }
+        }
+
+        return l >= 0 && isBeforeUpperBound(key, ranges.get(l).to());
+    }
+
+    /**
+     * Returns parts of range [from;to) which aren't covered by tombstones in ascending order.
+     */
+    public List<RangeTombstone> subtract(MemorySegment from, MemorySegment to) {
+        List<RangeTombstone> result = new ArrayList<>();
+        MemorySegment cursor = from;
+        for (RangeTombstone range : ranges) {
+            if (range.from() != null && !isBeforeUpperBound(range.from(), to)) {
+                break;
+            }
+            if (cursor != null && !isBeforeUpperBound(cursor, range.to())) {
+                continue;
+            }
+
+            if (range.from() != null && (cursor == null
+                    || MemorySegmentUtils.compareMemorySegments(cursor, range.from()) < 0)) {
+                result.add(new RangeTombstone(cursor, range.from()));
+            }
+            if (range.to() == null) {
+                return result;
+            }
+            cursor = range.to();
+        }
+
+        if (isBeforeUpperBound(cursor, to)) {
+            result.add(new RangeTombstone(cursor, to));
+        }
+        return result;
+    }
+
+    public MemorySegment toSegment() {
+        long size = Long.BYTES;
+        for (RangeTombstone range : ranges) {
+            size += 2 * Long.BYTES + boundSize(range.from()) + boundSize(range.to());
+        }
+
+        MemorySegment segment = MemorySegment.ofArray(new byte[(int) size]);
+        long offset = 0;
+        segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, ranges.size());
+        offset += Long.BYTES;
+        for (RangeTombstone range : ranges) {
+            offset = writeBound(segment, offset, range.from());
+            offset = writeBound(segment, offset, range.to());
+        }
+        return segment;
+    }
+
+    public static RangeTombstones fromSegment(MemorySegment segment) {
+        long count = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        List<RangeTombstone> ranges = new ArrayList<>((int) count);
+        long offset = Long.BYTES;
+        for (long i = 0; i < count; ++i) {
+            MemorySegment from = readBound(segment, offset);
+            offset += Long.BYTES + boundSize(from);
+            MemorySegment to = readBound(segment, offset);
+            offset += Long.BYTES + boundSize(to);
+            ranges.add(new RangeTombstone(from, to));
+        }
+        return ranges.isEmpty() ? EMPTY : new RangeTombstones(List.copyOf(ranges));
+    }
+
+    private static long boundSize(MemorySegment bound) {
+        return bound == null ? 0 : bound.byteSize();
+    }
+
+    private static long writeBound(MemorySegment segment, long offset, MemorySegment bound) {
+        long curOffset = offset;
+        segment.set(ValueLayout.JAVA_LONG_UNALIGNED, curOffset, bound == null ? NULL_BOUND_SIZE : bound.byteSize());
+        curOffset += Long.BYTES;
+        if (bound != null) {
+            MemorySegment.copy(bound, 0, segment, curOffset, bound.byteSize());
+            curOffset += bound.byteSize();
+        }
+        return curOffset;
+    }
+
+    private static MemorySegment readBound(MemorySegment segment, long offset) {
+        long size = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+        if (size == NULL_BOUND_SIZE) {
+            return null;
+        }
+        return segment.asSlice(offset + Long.BYTES, size);
+    }
+
+    /**
+     * Checks key < upperBound where null key is less than any upper bound and null upper bound is greater than any key.
+     */
+    private static boolean isBeforeUpperBound(MemorySegment key, MemorySegment upperBound) {
+        return key == null || upperBound == null || MemorySegmentUtils.compareMemorySegments(key, upperBound) < 0;
+    }
+
+    private static int compareUpperBounds(MemorySegment left, MemorySegment right) {
+        if (left == null || right == null) {
+            return left == right ? 0 : (left == null ? 1 : -1);
+        }
+        return MemorySegmentUtils.compareMemorySegments(left, right);
+    }
+
+    private static MemorySegment maxUpperBound(MemorySegment left, MemorySegment right) {
+        return compareUpperBounds(left, right) >= 0 ? left : right;
+    }
+}
@@ -0,0 +1,64 @@
+package com.holeyko.filter;
+
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Bloom filter over keys' bytes which is stored as is in the memory segment:
+ * count of hash functions, count of bits and the bits.
+ */
+public final class BloomFilter {
+    private static final int HEADER_BYTES = 2 * Long.BYTES;
+
+    private final MemorySegment data;
+    private final long countHashes;
+    private final long countBits;
+
+    private BloomFilter(MemorySegment data) {
+        this.data = data;
+        this.countHashes = data.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        this.countBits = data.get(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES);
+    }
+
+    public static BloomFilter create(long expectedCount, int bitsPerKey) {
+        long countWords = Math.max(1, (expectedCount * bitsPerKey + Long.SIZE - 1) / Long.SIZE);
+        MemorySegment data = MemorySegment.ofArray(new byte[(int) (HEADER_BYTES + countWords * Long.BYTES)]);
+        data.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, Math.max(1, Math.round(bitsPerKey * Math.log(2))));
+        data.set(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES, countWords * Long.SIZE);
+        return new BloomFilter(data);
+    }
+
+    public static BloomFilter fromSegment(MemorySegment segment) {
+        return new BloomFilter(segment);
+    }
+
+    public MemorySegment toSegment() {
+        return data;
+    }
+
+    public void add(MemorySegment key) {
+        long hash = MemorySegmentUtils.hash(key);
+        long step = Long.rotateLeft(hash, 32) | 1;
+        for (long i = 0; i < countHashes; ++i) {
+            long bit = Math.floorMod(hash + i * step, countBits);
+            long wordOffset = HEADER_BYTES + (bit >>> 6) * Long.BYTES;
+            long word = data.get(ValueLayout.JAVA_LONG_UNALIGNED, wordOffset);
+            data.set(ValueLayout.JAVA_LONG_UNALIGNED, wordOffset, word | (1L << (bit & 63)));
+        }
+    }
+
+    public boolean mightContain(MemorySegment key) {
+        long hash = MemorySegmentUtils.hash(key);
+        long step = Long.rotateLeft(hash, 32) | 1;
+        for (long i = 0; i < countHashes; ++i) {
+            long bit = Math.floorMod(hash + i * step, countBits);
+            long word = data.get(ValueLayout.JAVA_LONG_UNALIGNED, HEADER_BYTES + (bit >>> 6) * Long.BYTES);
+            if ((word & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,21 @@
+package com.holeyko.filter;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Extracts first length bytes of keys. Keys which are shorter don't have prefix.
+ */
+public record FixedPrefixExtractor(int length) implements PrefixExtractor {
+    @Override
+    public String name() {
+        return "fixed:" + length;
+    }
+
+    @Override
+    public MemorySegment extract(MemorySegment key) {
+        if (key.byteSize() < length) {
+            return null;
+        }
+        return key.asSlice(0, length);
+    }
+}
@@ -0,0 +1,19 @@
+package com.holeyko.filter;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Extracts prefixes of keys for prefix Bloom filters.
+ * For any key with prefix p where extract(p) isn't null, extract(key) must be equal to extract(p).
+ */
+public interface PrefixExtractor {
+    /**
+     * Returns name which identifies the extractor. Filters built by another extractor aren't used.
+     */
+    String name();
+
+    /**
+     * Returns prefix of the key or null if the key doesn't have prefix.
+     */
+    MemorySegment extract(MemorySegment key);
+}
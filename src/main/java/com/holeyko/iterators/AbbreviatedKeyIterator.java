@@ -0,0 +1,45 @@
+package com.holeyko.iterators;
+
+import com.holeyko.entry.Entry;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Comparator;
+
+/**
+ * Cursor of merge which caches abbreviation of the next entry's key, so the merge heap settles
+ * most comparisons by one comparison of numbers.
+ */
+public class AbbreviatedKeyIterator extends PriorityIterator<Entry<MemorySegment>> {
+    private Entry<MemorySegment> abbreviatedEntry;
+    private long abbreviation;
+
+    public AbbreviatedKeyIterator(FutureIterator<Entry<MemorySegment>> delegate, int priority) {
+        super(delegate, priority);
+    }
+
+    /**
+     * Returns abbreviation of the next entry's key, it's computed once per entry.
+     */
+    public long nextAbbreviation() {
+        Entry<MemorySegment> next = showNext();
+        if (next != abbreviatedEntry) {
+            abbreviatedEntry = next;
+            abbreviation = MemorySegmentUtils.abbreviate(next.key());
+        }
+        return abbreviation;
+    }
+
+    /**
+     * Returns comparator of cursors by keys of their next entries.
+     */
+    public static Comparator<AbbreviatedKeyIterator> comparator(Comparator<MemorySegment> keyComparator) {
+        return (left, right) -> MemorySegmentUtils.compareAbbreviated(
+                left.nextAbbreviation(),
+                left.showNext().key(),
+                right.nextAbbreviation(),
+                right.showNext().key(),
+                keyComparator
+        );
+    }
+}
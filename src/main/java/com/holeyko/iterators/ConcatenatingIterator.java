@@ -0,0 +1,71 @@
+package com.holeyko.iterators;
+
+import com.holeyko.utils.IteratorUtils;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class ConcatenatingIterator<T> implements FutureIterator<T> {
+    private final Iterator<? extends Iterator<T>> iterators;
+    private final FutureIterator<T> delegate;
+    private Iterator<T> current;
+
+    /**
+     * @param iterators iterators which are all closed by {@link #close()}
+     */
+    public ConcatenatingIterator(List<? extends Iterator<T>> iterators) {
+        this.iterators = iterators.iterator();
+        this.delegate = new LazyIterator<>(this::nextImpl, this::hasNextImpl, () -> {
+            for (Iterator<T> iterator : iterators) {
+                IteratorUtils.close(iterator);
+            }
+        });
+    }
+
+    /**
+     * @param iterators iterators which are taken only when previous ones are exhausted.
+     *                  {@link #close()} closes the current one and the source if it's closeable
+     */
+    public ConcatenatingIterator(Iterator<? extends Iterator<T>> iterators) {
+        this.iterators = iterators;
+        this.delegate = new LazyIterator<>(this::nextImpl, this::hasNextImpl, () -> {
+            IteratorUtils.close(current);
+            IteratorUtils.close(iterators);
+        });
+    }
+
+    @Override
+    public T showNext() {
+        return delegate.showNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return delegate.next();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private boolean hasNextImpl() {
+        while ((current == null || !current.hasNext()) && iterators.hasNext()) {
+            current = iterators.next();
+        }
+        return current != null && current.hasNext();
+    }
+
+    private T nextImpl() {
+        if (!hasNextImpl()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+}
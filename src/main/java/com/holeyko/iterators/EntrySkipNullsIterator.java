@@ -35,8 +35,13 @@ public class EntrySkipNullsIterator implements FutureIterator<Entry<MemorySegmen
         return delegate.next();
     }
 
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
     private void skipNulls() {
-        while (delegate.hasNext() && delegate.showNext().value() == null) {
+        while (delegate.hasNext() && (delegate.showNext().value() == null || delegate.showNext().isExpired())) {
             delegate.next();
         }
     }
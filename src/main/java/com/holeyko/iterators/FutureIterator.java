@@ -2,6 +2,15 @@ package com.holeyko.iterators;
 
 import java.util.Iterator;
 
-public interface FutureIterator<T> extends Iterator<T> {
+public interface FutureIterator<T> extends Iterator<T>, AutoCloseable {
     T showNext();
+
+    /**
+     * Releases resources of the iterator, e.g. references to SSTables, if it's abandoned before it's exhausted.
+     * Exhausted iterators release them by themselves. The iterator has no next entries after it's closed.
+     */
+    @Override
+    default void close() {
+        // Nothing to release by default
+    }
 }
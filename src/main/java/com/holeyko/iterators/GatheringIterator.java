@@ -7,6 +7,7 @@ import java.util.PriorityQueue;
 
 public class GatheringIterator<T> implements FutureIterator<T> {
     private final FutureIterator<T> delegate;
+    private final PriorityQueue<? extends FutureIterator<T>> heap;
 
     public <I extends FutureIterator<T>> GatheringIterator(
             Collection<? extends I> iterators,
@@ -16,6 +17,7 @@ public class GatheringIterator<T> implements FutureIterator<T> {
         PriorityQueue<I> heap = new PriorityQueue<>(iteratorsComparator);
         heap.addAll(iterators);
 
+        this.heap = heap;
         this.delegate = new LazyIterator<>(() -> nextImpl(heap, valuesComparator), () -> !heap.isEmpty());
     }
 
@@ -34,6 +36,17 @@ public class GatheringIterator<T> implements FutureIterator<T> {
         return delegate.next();
     }
 
+    /**
+     * Closes iterators which aren't exhausted yet.
+     */
+    @Override
+    public void close() {
+        delegate.close();
+        while (!heap.isEmpty()) {
+            heap.poll().close();
+        }
+    }
+
     private <I extends FutureIterator<T>> T nextImpl(
             PriorityQueue<I> heap,
             Comparator<? super T> valuesComparator
@@ -0,0 +1,135 @@
+package com.holeyko.iterators;
+
+import com.holeyko.entry.Entry;
+import com.holeyko.utils.IteratorUtils;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Spliterator over entries with keys in [from;to) which splits by key range.
+ * Every part opens its own merged iterator on the first traversal, so parts may be merged in parallel.
+ * {@link #close()} closes iterators of all parts, so a stream which isn't consumed entirely releases them.
+ */
+public class KeyRangeSpliterator implements Spliterator<Entry<MemorySegment>> {
+    private static final long MIN_SPLIT_SIZE = 1 << 12;
+
+    private final BiFunction<MemorySegment, MemorySegment, Iterator<Entry<MemorySegment>>> rangeLoader;
+    private final BinaryOperator<MemorySegment> splitKeyFinder;
+    private final ToLongBiFunction<MemorySegment, MemorySegment> sizeEstimator;
+    // Iterators opened by this spliterator and its parts
+    private final Queue<Iterator<Entry<MemorySegment>>> openedIterators;
+    private MemorySegment from;
+    private final MemorySegment to;
+    private long estimatedSize;
+    private Iterator<Entry<MemorySegment>> iterator;
+
+    /**
+     * @param rangeLoader returns ordered entries with keys in [from;to)
+     * @param splitKeyFinder returns a key strictly inside (from;to) or null if range can't be split
+     * @param sizeEstimator returns estimated count of entries with keys in [from;to)
+     */
+    public KeyRangeSpliterator(
+            MemorySegment from,
+            MemorySegment to,
+            BiFunction<MemorySegment, MemorySegment, Iterator<Entry<MemorySegment>>> rangeLoader,
+            BinaryOperator<MemorySegment> splitKeyFinder,
+            ToLongBiFunction<MemorySegment, MemorySegment> sizeEstimator
+    ) {
+        this(from, to, rangeLoader, splitKeyFinder, sizeEstimator, new ConcurrentLinkedQueue<>());
+    }
+
+    private KeyRangeSpliterator(
+            MemorySegment from,
+            MemorySegment to,
+            BiFunction<MemorySegment, MemorySegment, Iterator<Entry<MemorySegment>>> rangeLoader,
+            BinaryOperator<MemorySegment> splitKeyFinder,
+            ToLongBiFunction<MemorySegment, MemorySegment> sizeEstimator,
+            Queue<Iterator<Entry<MemorySegment>>> openedIterators
+    ) {
+        this.from = from;
+        this.to = to;
+        this.rangeLoader = rangeLoader;
+        this.splitKeyFinder = splitKeyFinder;
+        this.sizeEstimator = sizeEstimator;
+        this.openedIterators = openedIterators;
+        this.estimatedSize = sizeEstimator.applyAsLong(from, to);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Entry<MemorySegment>> action) {
+        Iterator<Entry<MemorySegment>> it = iterator();
+        if (!it.hasNext()) {
+            return false;
+        }
+
+        action.accept(it.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Entry<MemorySegment>> action) {
+        iterator().forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<Entry<MemorySegment>> trySplit() {
+        if (iterator != null || estimatedSize < MIN_SPLIT_SIZE) {
+            return null;
+        }
+
+        MemorySegment splitKey = splitKeyFinder.apply(from, to);
+        if (splitKey == null) {
+            return null;
+        }
+
+        KeyRangeSpliterator prefix = new KeyRangeSpliterator(
+                from, splitKey, rangeLoader, splitKeyFinder, sizeEstimator, openedIterators
+        );
+        from = splitKey;
+        estimatedSize = sizeEstimator.applyAsLong(from, to);
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SORTED | DISTINCT | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super Entry<MemorySegment>> getComparator() {
+        return Comparator.comparing(Entry::key, MemorySegmentUtils::compareMemorySegments);
+    }
+
+    /**
+     * Closes iterators opened by this spliterator and its parts.
+     */
+    public void close() {
+        Iterator<Entry<MemorySegment>> opened;
+        while ((opened = openedIterators.poll()) != null) {
+            IteratorUtils.close(opened);
+        }
+    }
+
+    private Iterator<Entry<MemorySegment>> iterator() {
+        if (iterator == null) {
+            iterator = rangeLoader.apply(from, to);
+            openedIterators.add(iterator);
+        }
+        return iterator;
+    }
+}
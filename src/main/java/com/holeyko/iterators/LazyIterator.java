@@ -1,5 +1,7 @@
 package com.holeyko.iterators;
 
+import com.holeyko.utils.IteratorUtils;
+
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.function.Supplier;
@@ -7,20 +9,31 @@ import java.util.function.Supplier;
 public class LazyIterator<T> implements FutureIterator<T> {
     private final Supplier<T> loadEntry;
     private final Supplier<Boolean> hasNextEntry;
+    private final Runnable onClose;
     private T next;
+    private boolean closed;
 
     public LazyIterator(Iterator<T> iterator) {
-        this(iterator::next, iterator::hasNext);
+        this(iterator::next, iterator::hasNext, () -> IteratorUtils.close(iterator));
     }
 
     public LazyIterator(Supplier<T> getEntry, Supplier<Boolean> hasNextEntry) {
+        this(getEntry, hasNextEntry, () -> {
+        });
+    }
+
+    /**
+     * @param onClose releases resources of the source, it's called once by {@link #close()}
+     */
+    public LazyIterator(Supplier<T> getEntry, Supplier<Boolean> hasNextEntry, Runnable onClose) {
         this.loadEntry = getEntry;
         this.hasNextEntry = hasNextEntry;
+        this.onClose = onClose;
     }
 
     @Override
     public boolean hasNext() {
-        return next != null || hasNextEntry.get();
+        return !closed && (next != null || hasNextEntry.get());
     }
 
     @Override
@@ -49,4 +62,15 @@ public class LazyIterator<T> implements FutureIterator<T> {
         }
         return next;
     }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        next = null;
+        onClose.run();
+    }
 }
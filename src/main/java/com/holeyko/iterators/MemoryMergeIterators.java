@@ -4,6 +4,7 @@ import com.holeyko.entry.Entry;
 import com.holeyko.utils.MemorySegmentUtils;
 
 import java.lang.foreign.MemorySegment;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -12,13 +13,34 @@ public class MemoryMergeIterators implements Iterator<Entry<MemorySegment>> {
     private final Iterator<Entry<MemorySegment>> sndIterator;
     private Entry<MemorySegment> fstEntry;
     private Entry<MemorySegment> sndEntry;
+    private final boolean descending;
+    private final Comparator<MemorySegment> keyComparator;
 
     public MemoryMergeIterators(
             Iterator<Entry<MemorySegment>> fstIterator,
             Iterator<Entry<MemorySegment>> sndIterator
+    ) {
+        this(fstIterator, sndIterator, false);
+    }
+
+    public MemoryMergeIterators(
+            Iterator<Entry<MemorySegment>> fstIterator,
+            Iterator<Entry<MemorySegment>> sndIterator,
+            boolean descending
+    ) {
+        this(fstIterator, sndIterator, descending, MemorySegmentUtils::compareMemorySegments);
+    }
+
+    public MemoryMergeIterators(
+            Iterator<Entry<MemorySegment>> fstIterator,
+            Iterator<Entry<MemorySegment>> sndIterator,
+            boolean descending,
+            Comparator<MemorySegment> keyComparator
     ) {
         this.fstIterator = fstIterator;
         this.sndIterator = sndIterator;
+        this.descending = descending;
+        this.keyComparator = keyComparator;
     }
 
     @Override
@@ -64,7 +86,10 @@ public class MemoryMergeIterators implements Iterator<Entry<MemorySegment>> {
     }
 
     private Entry<MemorySegment> compare() {
-        int compareResult = MemorySegmentUtils.compareMemorySegments(fstEntry.key(), sndEntry.key());
+        int compareResult = keyComparator.compare(fstEntry.key(), sndEntry.key());
+        if (descending) {
+            compareResult = -compareResult;
+        }
         Entry<MemorySegment> result;
         if (compareResult < 0) {
             result = fstEntry;
@@ -24,6 +24,11 @@ public class PriorityIterator<T> implements FutureIterator<T> {
         return delegate.next();
     }
 
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
     public int getPriority() {
         return priority;
     }
@@ -0,0 +1,26 @@
+package com.holeyko.memtable;
+
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Comparator;
+
+/**
+ * Key of the memory table with cached abbreviation, so most comparisons in the skip list
+ * are settled by one comparison of numbers without reading keys.
+ */
+public record AbbreviatedKey(long abbreviation, MemorySegment key) {
+    public static AbbreviatedKey of(MemorySegment key) {
+        return new AbbreviatedKey(MemorySegmentUtils.abbreviate(key), key);
+    }
+
+    public static Comparator<AbbreviatedKey> comparator(Comparator<MemorySegment> keyComparator) {
+        return (left, right) -> MemorySegmentUtils.compareAbbreviated(
+                left.abbreviation,
+                left.key,
+                right.abbreviation,
+                right.key,
+                keyComparator
+        );
+    }
+}
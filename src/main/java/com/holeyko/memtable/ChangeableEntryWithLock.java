@@ -6,11 +6,11 @@ import java.util.concurrent.atomic.AtomicReference;
 
 public class ChangeableEntryWithLock<T> implements Entry<T> {
     private final T key;
-    private final AtomicReference<T> value;
+    private final AtomicReference<Entry<T>> entry;
 
     public ChangeableEntryWithLock(Entry<T> entry) {
         this.key = entry.key();
-        this.value = new AtomicReference<>(entry.value());
+        this.entry = new AtomicReference<>(entry);
     }
 
     @Override
@@ -20,10 +20,22 @@ public class ChangeableEntryWithLock<T> implements Entry<T> {
 
     @Override
     public T value() {
-        return value.get();
+        return entry.get().value();
     }
 
-    public T getAndSet(T value) {
-        return this.value.getAndSet(value);
+    @Override
+    public long expiresAt() {
+        return entry.get().expiresAt();
+    }
+
+    /**
+     * Returns the current entry, its value and expiry time are read consistently.
+     */
+    public Entry<T> snapshot() {
+        return entry.get();
+    }
+
+    public Entry<T> getAndSet(Entry<T> entry) {
+        return this.entry.getAndSet(entry);
     }
 }
@@ -1,7 +1,11 @@
 package com.holeyko.memtable;
 
+import com.holeyko.entry.BaseEntry;
 import com.holeyko.entry.Entry;
+import com.holeyko.entry.RangeTombstone;
+import com.holeyko.entry.RangeTombstones;
 import com.holeyko.exception.MemoryTableOutOfMemoryException;
+import com.holeyko.iterators.ConcatenatingIterator;
 import com.holeyko.iterators.MemoryMergeIterators;
 import com.holeyko.sstable.SSTableManager;
 import com.holeyko.utils.IteratorUtils;
@@ -10,7 +14,9 @@ import com.holeyko.utils.MemorySegmentUtils;
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
@@ -25,64 +31,158 @@ import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class MemoryTable {
     private final Logger log = Logger.getLogger(MemoryTable.class.getName());
 
-    private final AtomicReference<ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>>> memTable =
-            new AtomicReference<>(createMap());
-    private final AtomicReference<ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>>> flushTable =
+    private final AtomicReference<ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>>> memTable;
+    private final AtomicReference<ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>>> flushTable =
             new AtomicReference<>(null);
+    private final AtomicReference<RangeTombstones> memRangeTombstones =
+            new AtomicReference<>(RangeTombstones.empty());
+    private final AtomicReference<RangeTombstones> flushRangeTombstones =
+            new AtomicReference<>(RangeTombstones.empty());
     private final ExecutorService flushWorker = Executors.newSingleThreadExecutor();
+    // Writes hold the read lock, so the flushed table isn't changed after it's swapped
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
     private final SSTableManager ssTableManager;
     private final long flushThresholdBytes;
+    private final Comparator<MemorySegment> keyComparator;
     private AtomicLong usedSpace = new AtomicLong();
     private AtomicBoolean wasDropped = new AtomicBoolean(true);
     private Future<?> flushFuture = CompletableFuture.completedFuture(null);
 
     public MemoryTable(SSTableManager ssTableManager, long flushThresholdBytes) {
+        this(ssTableManager, flushThresholdBytes, MemorySegmentUtils.keyComparator(0));
+    }
+
+    /**
+     * @param keyComparator comparator of keys which orders them as {@link MemorySegmentUtils#compareMemorySegments}
+     */
+    public MemoryTable(
+            SSTableManager ssTableManager,
+            long flushThresholdBytes,
+            Comparator<MemorySegment> keyComparator
+    ) {
         this.ssTableManager = ssTableManager;
         this.flushThresholdBytes = flushThresholdBytes;
+        this.keyComparator = keyComparator;
+        this.memTable = new AtomicReference<>(createMap());
     }
 
+    /**
+     * Returns entry by key, entry with null value if the key is deleted by a range tombstone
+     * or null if the memory table doesn't know about the key.
+     */
     public Entry<MemorySegment> get(MemorySegment key) {
-        Entry<MemorySegment> entry = memTable.get().get(key);
+        Entry<MemorySegment> entry = snapshot(memTable.get().get(AbbreviatedKey.of(key)));
+        if (entry == null && memRangeTombstones.get().covers(key)) {
+            return new BaseEntry<>(key, null);
+        }
         if (entry == null) {
-            NavigableMap<MemorySegment, Entry<MemorySegment>> curFlushTable = flushTable.get();
+            NavigableMap<AbbreviatedKey, Entry<MemorySegment>> curFlushTable = flushTable.get();
             if (curFlushTable != null) {
-                entry = curFlushTable.get(key);
+                entry = snapshot(curFlushTable.get(AbbreviatedKey.of(key)));
+            }
+            if (entry == null && flushRangeTombstones.get().covers(key)) {
+                return new BaseEntry<>(key, null);
             }
         }
 
         return entry;
     }
 
+    /**
+     * Returns range tombstones of the memory table. They hide entries of SSTables.
+     */
+    public RangeTombstones rangeTombstones() {
+        return memRangeTombstones.get().merge(flushRangeTombstones.get());
+    }
+
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        return get(from, to, false);
+    }
+
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to, boolean descending) {
         return new MemoryMergeIterators(
-                getIterator(memTable.get(), from, to),
-                getIterator(flushTable.get(), from, to)
+                getIterator(memTable.get(), from, to, descending),
+                getIterator(flushTable.get(), memRangeTombstones.get(), from, to, descending),
+                descending,
+                keyComparator
         );
     }
 
     private Iterator<Entry<MemorySegment>> getIterator(
-            ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> table,
+            ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> table,
+            RangeTombstones newerRangeTombstones,
             MemorySegment from,
-            MemorySegment to
+            MemorySegment to,
+            boolean descending
     ) {
         if (table == null) {
             return IteratorUtils.emptyIterator();
         }
+        if (newerRangeTombstones.isEmpty()) {
+            return getIterator(table, from, to, descending);
+        }
+
+        List<RangeTombstone> ranges = newerRangeTombstones.subtract(from, to);
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>();
+        for (RangeTombstone range : descending ? ranges.reversed() : ranges) {
+            iterators.add(getIterator(table, range.from(), range.to(), descending));
+        }
+        return new ConcatenatingIterator<>(iterators);
+    }
 
+    private Iterator<Entry<MemorySegment>> getIterator(
+            ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> table,
+            MemorySegment from,
+            MemorySegment to,
+            boolean descending
+    ) {
+        if (table == null) {
+            return IteratorUtils.emptyIterator();
+        }
+
+        ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> range = subMap(table, from, to);
+        if (descending) {
+            range = range.descendingMap();
+        }
+        Iterator<Entry<MemorySegment>> entries = range.values().iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Entry<MemorySegment> next() {
+                return snapshot(entries.next());
+            }
+        };
+    }
+
+    private static Entry<MemorySegment> snapshot(Entry<MemorySegment> entry) {
+        return entry == null ? null : ((ChangeableEntryWithLock<MemorySegment>) entry).snapshot();
+    }
+
+    private static ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> subMap(
+            ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> table,
+            MemorySegment from,
+            MemorySegment to
+    ) {
         if (from == null && to == null) {
-            return table.values().iterator();
+            return table;
         } else if (from == null) {
-            return table.headMap(to).values().iterator();
+            return table.headMap(AbbreviatedKey.of(to));
         } else if (to == null) {
-            return table.tailMap(from).values().iterator();
+            return table.tailMap(AbbreviatedKey.of(from));
         }
-        return table.subMap(from, to).values().iterator();
+        return table.subMap(AbbreviatedKey.of(from), AbbreviatedKey.of(to));
     }
 
     public void upsert(Entry<MemorySegment> entry) {
@@ -90,14 +190,50 @@ public class MemoryTable {
 
         long newSize = getEntrySize(entry);
         long prevSize = 0;
-        Entry<MemorySegment> prev = memTable.get().putIfAbsent(entry.key(), new ChangeableEntryWithLock<>(entry));
+        swapLock.readLock().lock();
+        try {
+            Entry<MemorySegment> prev = memTable.get().putIfAbsent(
+                    AbbreviatedKey.of(entry.key()),
+                    new ChangeableEntryWithLock<>(entry)
+            );
 
-        if (prev != null) {
-            prevSize = getValueSize(((ChangeableEntryWithLock<MemorySegment>) prev).getAndSet(entry.value()));
-            newSize = getValueSize(entry.value());
+            if (prev != null) {
+                prevSize = getValueSize(((ChangeableEntryWithLock<MemorySegment>) prev).getAndSet(entry).value());
+                newSize = getValueSize(entry.value());
+            }
+        } finally {
+            swapLock.readLock().unlock();
         }
 
-        if (usedSpace.addAndGet(newSize - prevSize) < flushThresholdBytes) {
+        addUsedSpace(newSize - prevSize);
+    }
+
+    /**
+     * Deletes entries with keys in [from;to). Entries of the memory table are removed,
+     * entries of SSTables are hidden by range tombstone.
+     */
+    public void deleteRange(MemorySegment from, MemorySegment to) {
+        RangeTombstone range = new RangeTombstone(from, to);
+        long removedSize = 0;
+        swapLock.readLock().lock();
+        try {
+            memRangeTombstones.updateAndGet(rangeTombstones -> rangeTombstones.add(range));
+
+            ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> table = memTable.get();
+            for (Entry<MemorySegment> entry : subMap(table, from, to).values()) {
+                if (table.remove(AbbreviatedKey.of(entry.key()), entry)) {
+                    removedSize += getEntrySize(entry);
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+
+        addUsedSpace(getValueSize(from) + getValueSize(to) - removedSize);
+    }
+
+    private void addUsedSpace(long delta) {
+        if (usedSpace.addAndGet(delta) < flushThresholdBytes) {
             return;
         }
 
@@ -128,28 +264,57 @@ public class MemoryTable {
     }
 
     public boolean flush(boolean importantFlush) {
-        if (!importantFlush && (memTable.get().isEmpty() || !flushFuture.isDone())) {
+        boolean isEmpty = memTable.get().isEmpty() && memRangeTombstones.get().isEmpty();
+        if (!importantFlush && (isEmpty || !flushFuture.isDone())) {
             return false;
         }
 
         flushFuture = flushWorker.submit(() -> {
-            flushTable.set(memTable.get());
-            memTable.set(createMap());
-            usedSpace.set(0);
-            wasDropped.set(true);
+            swapLock.writeLock().lock();
+            try {
+                flushTable.set(memTable.get());
+                flushRangeTombstones.set(memRangeTombstones.get());
+                memTable.set(createMap());
+                memRangeTombstones.set(RangeTombstones.empty());
+                usedSpace.set(0);
+                wasDropped.set(true);
+            } finally {
+                swapLock.writeLock().unlock();
+            }
 
             try {
-                ArrayList<Entry<MemorySegment>> entries = new ArrayList<>(flushTable.get().values());
-                ssTableManager.saveEntries(entries::iterator);
+                ArrayList<Entry<MemorySegment>> entries = new ArrayList<>(flushTable.get().size());
+                for (Entry<MemorySegment> entry : flushTable.get().values()) {
+                    entries.add(snapshot(entry));
+                }
+                ssTableManager.saveEntries(entries::iterator, flushRangeTombstones.get());
             } catch (Exception e) {
                 log.log(Level.WARNING, "Flushing was failed", e);
+                // Waiters of the flush mustn't proceed as if its entries were saved
+                throw new IllegalStateException("Flushing was failed", e);
             } finally {
                 flushTable.set(null);
+                flushRangeTombstones.set(RangeTombstones.empty());
             }
         });
         return true;
     }
 
+    /**
+     * Flushes the memory table and waits until its entries are saved.
+     */
+    public void flushAndWait() throws IOException {
+        try {
+            flush(true);
+            flushFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Waiting for flush was interrupted", e);
+        } catch (ExecutionException e) {
+            throw flushFailure(e);
+        }
+    }
+
     public void close() throws IOException {
         try {
             if (!flushWorker.isShutdown()) {
@@ -159,16 +324,24 @@ public class MemoryTable {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } catch (ExecutionException e) {
-            log.log(Level.WARNING, "Closing was failed", e.getCause());
-            if (e.getCause() instanceof IOException ioEx) {
-                throw ioEx;
-            }
+            // The failure is logged by the flush, the caller must know that entries weren't saved
+            throw flushFailure(e);
         } finally {
             flushWorker.close();
         }
     }
 
-    private static ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> createMap() {
-        return new ConcurrentSkipListMap<>(MemorySegmentUtils::compareMemorySegments);
+    /**
+     * Unwraps the failure of the flush task, it rethrows its error as {@link IllegalStateException}.
+     */
+    private static IOException flushFailure(ExecutionException e) {
+        Throwable cause = e.getCause() instanceof IllegalStateException stateEx && stateEx.getCause() != null
+                ? stateEx.getCause()
+                : e.getCause();
+        return cause instanceof IOException ioEx ? ioEx : new IOException("Flushing was failed", cause);
+    }
+
+    private ConcurrentNavigableMap<AbbreviatedKey, Entry<MemorySegment>> createMap() {
+        return new ConcurrentSkipListMap<>(AbbreviatedKey.comparator(keyComparator));
     }
 }
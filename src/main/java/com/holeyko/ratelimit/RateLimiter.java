@@ -0,0 +1,143 @@
+package com.holeyko.ratelimit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket which limits count of written bytes per second. Bucket holds no more than one second of tokens.
+ * Request is allowed while the bucket isn't empty and may take more tokens than it has,
+ * so big requests aren't starved and the debt is paid by next requests.
+ * Requests with low priority wait while there are waiting requests with high priority.
+ */
+public final class RateLimiter {
+    private static final long THROTTLE_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private int waitingHighPriority;
+
+    /**
+     * @param bytesPerSecond limit of bytes per second, 0 means no limit
+     */
+    public RateLimiter(long bytesPerSecond) {
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        lock.lock();
+        try {
+            return bytesPerSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the limit, waiting requests are rechecked with the new one.
+     * @param bytesPerSecond limit of bytes per second, 0 means no limit
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limit must be non-negative: " + bytesPerSecond);
+        }
+
+        lock.lock();
+        try {
+            refill();
+            this.bytesPerSecond = bytesPerSecond;
+            tokens = Math.min(tokens, bytesPerSecond);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the bytes can be written.
+     */
+    public void acquire(long bytes, boolean highPriority) throws InterruptedException {
+        lock.lock();
+        try {
+            if (highPriority) {
+                ++waitingHighPriority;
+            }
+            try {
+                while (true) {
+                    refill();
+                    if (bytesPerSecond == 0) {
+                        return;
+                    }
+
+                    boolean yields = !highPriority && waitingHighPriority > 0;
+                    if (!yields && tokens > 0) {
+                        tokens -= bytes;
+                        return;
+                    }
+
+                    long waitNanos = yields
+                            ? MAX_WAIT_NANOS
+                            : (long) Math.ceil(-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond) + 1;
+                    changed.awaitNanos(Math.min(waitNanos, MAX_WAIT_NANOS));
+                }
+            } finally {
+                if (highPriority && --waitingHighPriority == 0) {
+                    changed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns throttle for one writer.
+     */
+    public Throttle throttle(boolean highPriority) {
+        return new Throttle(highPriority);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(
+                bytesPerSecond,
+                tokens + (double) (now - lastRefillNanos) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1)
+        );
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Accounts bytes of one writer and acquires them from the limiter by chunks. Isn't thread-safe.
+     */
+    public final class Throttle {
+        private final boolean highPriority;
+        private long pendingBytes;
+
+        private Throttle(boolean highPriority) {
+            this.highPriority = highPriority;
+        }
+
+        public void written(long bytes) throws IOException {
+            pendingBytes += bytes;
+            if (pendingBytes < THROTTLE_CHUNK_BYTES) {
+                return;
+            }
+
+            try {
+                acquire(pendingBytes, highPriority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Writing was interrupted");
+            } finally {
+                pendingBytes = 0;
+            }
+        }
+    }
+}
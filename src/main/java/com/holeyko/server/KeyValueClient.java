@@ -0,0 +1,239 @@
+package com.holeyko.server;
+
+import com.holeyko.entry.BaseEntry;
+import com.holeyko.entry.Entry;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Client of {@link KeyValueServer}. Requests can be pipelined: send* methods only buffer requests,
+ * {@link #flush()} sends them and receive* methods read responses in the same order.
+ * Server doesn't read requests while it can't write responses, so responses of a long pipeline must be
+ * received before more requests are flushed. Plain methods send one request and wait for its response.
+ * The client isn't thread-safe.
+ */
+public class KeyValueClient implements Closeable {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final SocketChannel channel;
+    private ByteBuffer output = ByteBuffer.allocate(BUFFER_BYTES);
+    private ByteBuffer input = ByteBuffer.allocate(BUFFER_BYTES).flip();
+
+    public KeyValueClient(InetSocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Returns value by key or null if it's absent.
+     */
+    public MemorySegment get(MemorySegment key) throws IOException {
+        sendGet(key);
+        flush();
+        return receiveGet();
+    }
+
+    /**
+     * Upserts value by key, null value removes the key.
+     */
+    public void upsert(MemorySegment key, MemorySegment value) throws IOException {
+        sendUpsert(key, value);
+        flush();
+        receiveUpsert();
+    }
+
+    /**
+     * Returns entries with keys in [from;to), no more than limit of them if it isn't 0.
+     */
+    public List<Entry<MemorySegment>> scan(MemorySegment from, MemorySegment to, int limit) throws IOException {
+        sendScan(from, to, limit);
+        flush();
+        return receiveScan();
+    }
+
+    /**
+     * Returns entries of present keys sorted by key.
+     */
+    public List<Entry<MemorySegment>> getAll(Collection<MemorySegment> keys) throws IOException {
+        sendGetAll(keys);
+        flush();
+        return receiveGetAll();
+    }
+
+    public void sendGet(MemorySegment key) {
+        int frameStart = startFrame(KeyValueProtocol.GET);
+        putBytes(key);
+        finishFrame(frameStart);
+    }
+
+    public void sendUpsert(MemorySegment key, MemorySegment value) {
+        int frameStart = startFrame(KeyValueProtocol.UPSERT);
+        putBytes(key);
+        putBytes(value);
+        finishFrame(frameStart);
+    }
+
+    public void sendScan(MemorySegment from, MemorySegment to, int limit) {
+        int frameStart = startFrame(KeyValueProtocol.SCAN);
+        putBytes(from);
+        putBytes(to);
+        ensureOutput(Integer.BYTES).putInt(limit);
+        finishFrame(frameStart);
+    }
+
+    public void sendGetAll(Collection<MemorySegment> keys) {
+        int frameStart = startFrame(KeyValueProtocol.MULTI_GET);
+        ensureOutput(Integer.BYTES).putInt(keys.size());
+        for (MemorySegment key : keys) {
+            putBytes(key);
+        }
+        finishFrame(frameStart);
+    }
+
+    /**
+     * Sends buffered requests.
+     */
+    public void flush() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+
+    public MemorySegment receiveGet() throws IOException {
+        byte status = readStatus();
+        if (status == KeyValueProtocol.NOT_FOUND) {
+            return null;
+        }
+        checkStatus(status, KeyValueProtocol.OK);
+        return readBytes();
+    }
+
+    public void receiveUpsert() throws IOException {
+        checkStatus(readStatus(), KeyValueProtocol.OK);
+    }
+
+    public List<Entry<MemorySegment>> receiveScan() throws IOException {
+        List<Entry<MemorySegment>> entries = new ArrayList<>();
+        byte status = readStatus();
+        while (status == KeyValueProtocol.ENTRY) {
+            entries.add(new BaseEntry<>(readBytes(), readBytes()));
+            status = readStatus();
+        }
+        checkStatus(status, KeyValueProtocol.OK);
+        return entries;
+    }
+
+    public List<Entry<MemorySegment>> receiveGetAll() throws IOException {
+        checkStatus(readStatus(), KeyValueProtocol.OK);
+        int count = readInt();
+        List<Entry<MemorySegment>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            entries.add(new BaseEntry<>(readBytes(), readBytes()));
+        }
+        return entries;
+    }
+
+    private int startFrame(byte operation) {
+        ensureOutput(Integer.BYTES + Byte.BYTES);
+        int frameStart = output.position();
+        output.putInt(0);
+        output.put(operation);
+        return frameStart;
+    }
+
+    private void finishFrame(int frameStart) {
+        output.putInt(frameStart, output.position() - frameStart - Integer.BYTES);
+    }
+
+    private void putBytes(MemorySegment segment) {
+        if (segment == null) {
+            ensureOutput(Integer.BYTES).putInt(KeyValueProtocol.NULL_LENGTH);
+            return;
+        }
+        ensureOutput(Integer.BYTES + segment.byteSize())
+                .putInt(Math.toIntExact(segment.byteSize()))
+                .put(segment.asByteBuffer());
+    }
+
+    /**
+     * Grows the output buffer, so a frame is always built in one buffer.
+     */
+    private ByteBuffer ensureOutput(long size) {
+        if (output.remaining() < size) {
+            int capacity = Math.toIntExact(Math.max(2L * output.capacity(), output.position() + size));
+            output = ByteBuffer.allocate(capacity).put(output.flip());
+        }
+        return output;
+    }
+
+    private byte readStatus() throws IOException {
+        fill(Byte.BYTES);
+        return input.get();
+    }
+
+    private int readInt() throws IOException {
+        fill(Integer.BYTES);
+        return input.getInt();
+    }
+
+    private MemorySegment readBytes() throws IOException {
+        int length = readInt();
+        if (length == KeyValueProtocol.NULL_LENGTH) {
+            return null;
+        }
+
+        fill(length);
+        byte[] bytes = new byte[length];
+        input.get(bytes);
+        return MemorySegment.ofArray(bytes);
+    }
+
+    private void checkStatus(byte status, byte expected) throws IOException {
+        if (status == KeyValueProtocol.ERROR) {
+            byte[] message = readBytes().toArray(ValueLayout.JAVA_BYTE);
+            throw new IOException("Server error: " + new String(message, StandardCharsets.UTF_8));
+        }
+        if (status != expected) {
+            throw new IOException("Unexpected status " + status);
+        }
+    }
+
+    /**
+     * Reads from the channel until the input buffer has at least size bytes.
+     */
+    private void fill(int size) throws IOException {
+        if (input.remaining() >= size) {
+            return;
+        }
+        if (input.capacity() < size) {
+            input = ByteBuffer.allocate(size).put(input).flip();
+        }
+
+        input.compact();
+        while (input.position() < size) {
+            if (channel.read(input) < 0) {
+                throw new EOFException("Connection is closed by the server");
+            }
+        }
+        input.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
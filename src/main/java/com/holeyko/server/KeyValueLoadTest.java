@@ -0,0 +1,146 @@
+package com.holeyko.server;
+
+import com.holeyko.dao.Config;
+import com.holeyko.dao.LSMDao;
+import com.holeyko.utils.FileUtils;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load test of {@link KeyValueServer} over localhost: fills a temporary storage and measures throughput
+ * of gets one by one, pipelined gets and multi-gets.
+ * Arguments: count of keys, count of clients, operations per client, pipeline depth, value size.
+ */
+public final class KeyValueLoadTest {
+    private static final long FLUSH_THRESHOLD_BYTES = 64 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int countKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int countClients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        int valueBytes = args.length > 4 ? Integer.parseInt(args[4]) : 1024;
+
+        Path path = Files.createTempDirectory("kv-load-test");
+        InetSocketAddress anyLocalPort = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (
+                LSMDao dao = new LSMDao(new Config(path, FLUSH_THRESHOLD_BYTES));
+                KeyValueServer server = new KeyValueServer(dao, anyLocalPort)
+        ) {
+            InetSocketAddress address = server.address();
+            long start = System.nanoTime();
+            fill(address, countKeys, depth, valueBytes);
+            report("upsert, pipeline " + depth, countKeys, start);
+            dao.flush();
+
+            run("get", address, countClients, operations, client -> {
+                for (int i = 0; i < operations; ++i) {
+                    client.get(randomKey(countKeys));
+                }
+            });
+            run("get, pipeline " + depth, address, countClients, operations, client -> {
+                for (int i = 0; i < operations; i += depth) {
+                    int batch = Math.min(depth, operations - i);
+                    for (int j = 0; j < batch; ++j) {
+                        client.sendGet(randomKey(countKeys));
+                    }
+                    client.flush();
+                    for (int j = 0; j < batch; ++j) {
+                        client.receiveGet();
+                    }
+                }
+            });
+            run("multi-get of " + depth, address, countClients, operations, client -> {
+                for (int i = 0; i < operations; i += depth) {
+                    List<MemorySegment> keys = new ArrayList<>(depth);
+                    for (int j = 0; j < Math.min(depth, operations - i); ++j) {
+                        keys.add(randomKey(countKeys));
+                    }
+                    client.getAll(keys);
+                }
+            });
+        } finally {
+            FileUtils.deleteRecursively(path);
+        }
+    }
+
+    private static void fill(
+            InetSocketAddress address,
+            int countKeys,
+            int depth,
+            int valueBytes
+    ) throws IOException {
+        MemorySegment value = MemorySegment.ofArray(new byte[valueBytes]);
+        try (KeyValueClient client = new KeyValueClient(address)) {
+            for (int i = 0; i < countKeys; i += depth) {
+                int batch = Math.min(depth, countKeys - i);
+                for (int j = 0; j < batch; ++j) {
+                    client.sendUpsert(key(i + j), value);
+                }
+                client.flush();
+                for (int j = 0; j < batch; ++j) {
+                    client.receiveUpsert();
+                }
+            }
+        }
+    }
+
+    private static void run(
+            String name,
+            InetSocketAddress address,
+            int countClients,
+            int operations,
+            ClientTask task
+    ) throws Exception {
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newFixedThreadPool(countClients)) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < countClients; ++i) {
+                results.add(clients.submit(() -> {
+                    try (KeyValueClient client = new KeyValueClient(address)) {
+                        task.run(client);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+        report(name, (long) countClients * operations, start);
+    }
+
+    private static void report(String name, long operations, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%-24s %10d ops %8.2f s %12.0f ops/s%n",
+                name, operations, seconds, operations / seconds);
+    }
+
+    private static MemorySegment randomKey(int countKeys) {
+        return key(ThreadLocalRandom.current().nextInt(countKeys));
+    }
+
+    private static MemorySegment key(int index) {
+        return MemorySegment.ofArray("key%010d".formatted(index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @FunctionalInterface
+    private interface ClientTask {
+        void run(KeyValueClient client) throws IOException;
+    }
+
+    private KeyValueLoadTest() {
+    }
+}
@@ -0,0 +1,33 @@
+package com.holeyko.server;
+
+/**
+ * Binary protocol of {@link KeyValueServer}, all numbers are big-endian.
+ * Request is a frame: length of the rest of the frame (int), operation (byte) and its arguments.
+ * Byte strings are written as length (int) and bytes, length -1 means null.
+ * Requests of a connection can be pipelined, responses are sent in order of requests:
+ * <ul>
+ *     <li>GET key &#8211; OK value or NOT_FOUND</li>
+ *     <li>UPSERT key value &#8211; OK, null value removes the key</li>
+ *     <li>SCAN from to limit &#8211; ENTRY key value for every entry in [from;to), then OK,
+ *     null bounds are unbounded and limit 0 means no limit</li>
+ *     <li>MULTI_GET count keys &#8211; OK, count of found entries and their keys and values sorted by key</li>
+ * </ul>
+ * Any operation can be answered by ERROR message instead of the final status, e.g. SCAN after some entries.
+ */
+public final class KeyValueProtocol {
+    public static final byte GET = 1;
+    public static final byte UPSERT = 2;
+    public static final byte SCAN = 3;
+    public static final byte MULTI_GET = 4;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte ERROR = 2;
+    public static final byte ENTRY = 3;
+
+    public static final int NULL_LENGTH = -1;
+    public static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    private KeyValueProtocol() {
+    }
+}
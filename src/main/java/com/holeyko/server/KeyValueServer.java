@@ -0,0 +1,223 @@
+package com.holeyko.server;
+
+import com.holeyko.dao.Dao;
+import com.holeyko.entry.BaseEntry;
+import com.holeyko.entry.Entry;
+import com.holeyko.utils.IteratorUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TCP server of Dao speaking {@link KeyValueProtocol}. Every connection is served by its own virtual thread
+ * with blocking NIO channel. All complete requests which are read at once are executed before responses
+ * are flushed, so pipelined requests are answered by few gathering writes.
+ * Closing of the server closes connections, but doesn't close Dao.
+ */
+public class KeyValueServer implements Closeable {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final Logger log = Logger.getLogger(KeyValueServer.class.getName());
+
+    private final Dao<MemorySegment, Entry<MemorySegment>> dao;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService worker = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    public KeyValueServer(Dao<MemorySegment, Entry<MemorySegment>> dao, InetSocketAddress address)
+            throws IOException {
+        this.dao = dao;
+        this.serverChannel = ServerSocketChannel.open().bind(address);
+        worker.execute(this::acceptConnections);
+    }
+
+    /**
+     * Returns bound address, e.g. to find out the port if the server was bound to port 0.
+     */
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    private void acceptConnections() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel connection = serverChannel.accept();
+                connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connections.add(connection);
+                worker.execute(() -> serve(connection));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Accepting of connection was failed", e);
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection) {
+        try (connection) {
+            ResponseWriter writer = new ResponseWriter(connection);
+            ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            while (true) {
+                input.flip();
+                while (hasFrame(input)) {
+                    int length = input.getInt();
+                    ByteBuffer frame = input.slice(input.position(), length);
+                    input.position(input.position() + length);
+                    handle(frame, writer);
+                }
+                input.compact();
+                writer.flush();
+
+                input = ensureFrameFits(input);
+                if (connection.read(input) < 0) {
+                    return;
+                }
+            }
+        } catch (ClosedChannelException ignored) {
+            // Connection is closed by the server
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Connection was failed", e);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private static boolean hasFrame(ByteBuffer input) throws IOException {
+        if (input.remaining() < Integer.BYTES) {
+            return false;
+        }
+
+        int length = input.getInt(input.position());
+        if (length <= 0 || length > KeyValueProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("Frame of %d bytes is invalid".formatted(length));
+        }
+        return input.remaining() - Integer.BYTES >= length;
+    }
+
+    /**
+     * Grows the buffer in write mode if the started frame doesn't fit it.
+     */
+    private static ByteBuffer ensureFrameFits(ByteBuffer input) {
+        if (input.position() < Integer.BYTES) {
+            return input;
+        }
+
+        int frameBytes = Integer.BYTES + input.getInt(0);
+        if (frameBytes <= input.capacity()) {
+            return input;
+        }
+        return ByteBuffer.allocate(frameBytes).put(input.flip());
+    }
+
+    private void handle(ByteBuffer frame, ResponseWriter writer) throws IOException {
+        byte operation = frame.get();
+        try {
+            switch (operation) {
+                case KeyValueProtocol.GET -> handleGet(frame, writer);
+                case KeyValueProtocol.UPSERT -> handleUpsert(frame, writer);
+                case KeyValueProtocol.SCAN -> handleScan(frame, writer);
+                case KeyValueProtocol.MULTI_GET -> handleMultiGet(frame, writer);
+                default -> writeError(writer, "Unknown operation " + operation);
+            }
+        } catch (RuntimeException e) {
+            writeError(writer, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void handleGet(ByteBuffer frame, ResponseWriter writer) throws IOException {
+        Entry<MemorySegment> entry = dao.get(readBytes(frame));
+        if (entry == null) {
+            writer.putByte(KeyValueProtocol.NOT_FOUND);
+            return;
+        }
+        writer.putByte(KeyValueProtocol.OK);
+        writer.putBytes(entry.value());
+    }
+
+    private void handleUpsert(ByteBuffer frame, ResponseWriter writer) throws IOException {
+        MemorySegment key = readBytes(frame);
+        MemorySegment value = readBytes(frame);
+        dao.upsert(new BaseEntry<>(key, value));
+        writer.putByte(KeyValueProtocol.OK);
+    }
+
+    private void handleScan(ByteBuffer frame, ResponseWriter writer) throws IOException {
+        MemorySegment from = readBytes(frame);
+        MemorySegment to = readBytes(frame);
+        int limit = frame.getInt();
+        Iterator<Entry<MemorySegment>> iterator = dao.get(from, to);
+        try {
+            for (int i = 0; (limit == 0 || i < limit) && iterator.hasNext(); ++i) {
+                Entry<MemorySegment> entry = iterator.next();
+                writer.putByte(KeyValueProtocol.ENTRY);
+                writer.putBytes(entry.key());
+                writer.putBytes(entry.value());
+            }
+        } finally {
+            // A limited scan leaves the iterator unfinished, it must release SSTables
+            IteratorUtils.close(iterator);
+        }
+        writer.putByte(KeyValueProtocol.OK);
+    }
+
+    private void handleMultiGet(ByteBuffer frame, ResponseWriter writer) throws IOException {
+        int count = frame.getInt();
+        List<MemorySegment> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            keys.add(readBytes(frame));
+        }
+
+        List<Entry<MemorySegment>> entries = dao.getAll(keys);
+        writer.putByte(KeyValueProtocol.OK);
+        writer.putInt(entries.size());
+        for (Entry<MemorySegment> entry : entries) {
+            writer.putBytes(entry.key());
+            writer.putBytes(entry.value());
+        }
+    }
+
+    private static void writeError(ResponseWriter writer, String message) throws IOException {
+        writer.putByte(KeyValueProtocol.ERROR);
+        writer.putBytes(MemorySegment.ofArray(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reads byte string copying it to the heap, because the frame's buffer is reused by next requests.
+     */
+    private static MemorySegment readBytes(ByteBuffer frame) {
+        int length = frame.getInt();
+        if (length == KeyValueProtocol.NULL_LENGTH) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return MemorySegment.ofArray(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+        worker.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.holeyko.server;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects responses of a connection and writes them by gathering writes.
+ * Numbers and small byte strings are copied into the scratch buffer, bigger byte strings are written
+ * straight from their memory segments, e.g. from mapped SSTables, without copying.
+ */
+public class ResponseWriter {
+    private static final int SCRATCH_BYTES = 64 * 1024;
+    private static final long COPY_THRESHOLD_BYTES = 512;
+    private static final int MAX_PENDING_BUFFERS = 1024;
+
+    private final GatheringByteChannel channel;
+    private final ByteBuffer scratch = ByteBuffer.allocateDirect(SCRATCH_BYTES);
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    private int sliceFrom;
+
+    public ResponseWriter(GatheringByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public void putByte(byte value) throws IOException {
+        ensureScratch(Byte.BYTES);
+        scratch.put(value);
+    }
+
+    public void putInt(int value) throws IOException {
+        ensureScratch(Integer.BYTES);
+        scratch.putInt(value);
+    }
+
+    /**
+     * Puts length and bytes of the segment or {@link KeyValueProtocol#NULL_LENGTH} if it's null.
+     * The segment must stay valid until the next flush.
+     */
+    public void putBytes(MemorySegment segment) throws IOException {
+        if (segment == null) {
+            putInt(KeyValueProtocol.NULL_LENGTH);
+            return;
+        }
+
+        putInt(Math.toIntExact(segment.byteSize()));
+        if (segment.byteSize() <= COPY_THRESHOLD_BYTES) {
+            ensureScratch((int) segment.byteSize());
+            scratch.put(segment.asByteBuffer());
+            return;
+        }
+
+        closeSlice();
+        pending.add(segment.asByteBuffer());
+        if (pending.size() >= MAX_PENDING_BUFFERS) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all collected responses to the channel.
+     */
+    public void flush() throws IOException {
+        closeSlice();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer[] buffers = pending.toArray(ByteBuffer[]::new);
+        int first = 0;
+        while (first < buffers.length) {
+            channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                ++first;
+            }
+        }
+        pending.clear();
+        scratch.clear();
+        sliceFrom = 0;
+    }
+
+    private void ensureScratch(int size) throws IOException {
+        if (scratch.remaining() < size) {
+            flush();
+        }
+    }
+
+    private void closeSlice() {
+        if (scratch.position() > sliceFrom) {
+            pending.add(scratch.slice(sliceFrom, scratch.position() - sliceFrom));
+            sliceFrom = scratch.position();
+        }
+    }
+}
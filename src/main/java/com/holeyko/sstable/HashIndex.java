@@ -0,0 +1,78 @@
+package com.holeyko.sstable;
+
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.function.IntFunction;
+
+/**
+ * Open addressing hash table from keys to indexes of records.
+ * Every slot stores 32 bits of key's hash as fingerprint and index of record plus one, zero slot is empty.
+ * Stored as is in the memory segment: capacity and slots.
+ */
+public final class HashIndex {
+    private static final double LOAD_FACTOR = 0.75;
+    private static final long INDEX_MASK = 0xffffffffL;
+
+    private final MemorySegment data;
+    private final long mask;
+
+    private HashIndex(MemorySegment data) {
+        this.data = data;
+        this.mask = data.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) - 1;
+    }
+
+    public static HashIndex create(int countRecords) {
+        long capacity = Long.highestOneBit((long) (countRecords / LOAD_FACTOR) + 1) << 1;
+        MemorySegment data = MemorySegment.ofArray(new byte[(int) ((capacity + 1) * Long.BYTES)]);
+        data.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, capacity);
+        return new HashIndex(data);
+    }
+
+    public static HashIndex fromSegment(MemorySegment segment) {
+        return new HashIndex(segment);
+    }
+
+    public MemorySegment toSegment() {
+        return data;
+    }
+
+    public void add(MemorySegment key, int index) {
+        long hash = MemorySegmentUtils.hash(key);
+        long slot = hash & mask;
+        while (getSlot(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        setSlot(slot, (hash & ~INDEX_MASK) | (index + 1L));
+    }
+
+    /**
+     * Returns index of the record with the key or -1 if there is no such record.
+     * @param keyAt returns key of the record by index to resolve fingerprints' collisions
+     */
+    public int find(MemorySegment key, IntFunction<MemorySegment> keyAt) {
+        long hash = MemorySegmentUtils.hash(key);
+        long fingerprint = hash & ~INDEX_MASK;
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long value = getSlot(slot);
+            if (value == 0) {
+                return -1;
+            }
+
+            int index = (int) ((value & INDEX_MASK) - 1);
+            if ((value & ~INDEX_MASK) == fingerprint
+                    && MemorySegmentUtils.compareMemorySegments(keyAt.apply(index), key) == 0) {
+                return index;
+            }
+        }
+    }
+
+    private long getSlot(long slot) {
+        return data.get(ValueLayout.JAVA_LONG_UNALIGNED, (slot + 1) * Long.BYTES);
+    }
+
+    private void setSlot(long slot, long value) {
+        data.set(ValueLayout.JAVA_LONG_UNALIGNED, (slot + 1) * Long.BYTES, value);
+    }
+}
@@ -0,0 +1,191 @@
+package com.holeyko.sstable;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Piecewise linear model which maps first 8 bytes of the key as big-endian number to approximate index of the record.
+ * Index of the first record with such key's number differs from the prediction by no more than {@link #ERROR},
+ * the record itself can be further by the count of records with the same number.
+ * Stored in the memory segment: error, max count of records with the same number, count of segments
+ * and segments as first key's number, index of its record and slope.
+ */
+public final class LearnedIndex {
+    public static final int ERROR = 16;
+    private static final int MAX_EQUAL_RUN = 64;
+    private static final int MIN_RECORDS_PER_SEGMENT = 16;
+    private static final int HEADER_BYTES = 3 * Long.BYTES;
+    private static final int SEGMENT_BYTES = 3 * Long.BYTES;
+
+    private final MemorySegment data;
+    private final int error;
+    private final int maxEqualRun;
+    private final int countSegments;
+
+    private LearnedIndex(MemorySegment data) {
+        this.data = data;
+        this.error = (int) data.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        this.maxEqualRun = (int) data.get(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES);
+        this.countSegments = (int) data.get(ValueLayout.JAVA_LONG_UNALIGNED, 2 * Long.BYTES);
+    }
+
+    public static LearnedIndex fromSegment(MemorySegment segment) {
+        return new LearnedIndex(segment);
+    }
+
+    public static Builder builder(int countRecords) {
+        return new Builder(countRecords);
+    }
+
+    public MemorySegment toSegment() {
+        return data;
+    }
+
+    /**
+     * Returns index from which the record with the key should be searched.
+     */
+    public int fromIndex(MemorySegment key) {
+        return predict(key) - error;
+    }
+
+    /**
+     * Returns index to which (inclusive) the record with the key should be searched.
+     */
+    public int toIndex(MemorySegment key) {
+        return predict(key) + error + maxEqualRun;
+    }
+
+    private int predict(MemorySegment key) {
+        long keyNumber = toNumber(key);
+        int l = -1;
+        int r = countSegments;
+        while (l + 1 < r) {
+            int mid = (l + r) >>> 1;
+            if (Long.compareUnsigned(segmentKeyNumber(mid), keyNumber) <= 0) {
+                l = mid;
+            } else {
+                r = mid;
+            }
+        }
+        if (l < 0) {
+            return 0;
+        }
+
+        long offset = HEADER_BYTES + (long) l * SEGMENT_BYTES;
+        long startIndex = data.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + Long.BYTES);
+        double slope = Double.longBitsToDouble(data.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + 2 * Long.BYTES));
+        return (int) (startIndex + slope * (toDouble(keyNumber) - toDouble(segmentKeyNumber(l))));
+    }
+
+    private long segmentKeyNumber(int segment) {
+        return data.get(ValueLayout.JAVA_LONG_UNALIGNED, HEADER_BYTES + (long) segment * SEGMENT_BYTES);
+    }
+
+    private static long toNumber(MemorySegment key) {
+        long number = 0;
+        for (long i = 0; i < Long.BYTES; ++i) {
+            number <<= Byte.SIZE;
+            if (i < key.byteSize()) {
+                number |= key.get(ValueLayout.JAVA_BYTE, i) & 0xff;
+            }
+        }
+        return number;
+    }
+
+    private static double toDouble(long unsignedNumber) {
+        return (double) (unsignedNumber ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * Builds segments by shrinking cone: segment is extended while some slope keeps all its points within the error.
+     * Keys must be added in ascending order.
+     */
+    public static final class Builder {
+        private final int maxSegments;
+        private final List<long[]> segments = new ArrayList<>();
+        private boolean fits = true;
+        private long prevNumber;
+        private int prevNumberIndex = -1;
+        private int maxEqualRun = 1;
+        private long startNumber;
+        private long startIndex;
+        private double minSlope;
+        private double maxSlope;
+
+        private Builder(int countRecords) {
+            this.maxSegments = Math.max(1, countRecords / MIN_RECORDS_PER_SEGMENT);
+        }
+
+        public void add(MemorySegment key, int index) {
+            if (!fits) {
+                return;
+            }
+
+            long number = toNumber(key);
+            if (prevNumberIndex >= 0 && number == prevNumber) {
+                maxEqualRun = Math.max(maxEqualRun, index - prevNumberIndex + 1);
+                fits = maxEqualRun <= MAX_EQUAL_RUN;
+                return;
+            }
+            prevNumber = number;
+            prevNumberIndex = index;
+
+            if (!segments.isEmpty()) {
+                double dx = toDouble(number) - toDouble(startNumber);
+                double dy = index - startIndex;
+                if (dx > 0) {
+                    double newMinSlope = Math.max(minSlope, (dy - ERROR) / dx);
+                    double newMaxSlope = Math.min(maxSlope, (dy + ERROR) / dx);
+                    if (newMinSlope <= newMaxSlope) {
+                        minSlope = newMinSlope;
+                        maxSlope = newMaxSlope;
+                        return;
+                    }
+                } else if (dy <= ERROR) {
+                    return;
+                }
+                finishSegment();
+            }
+
+            if (segments.size() == maxSegments) {
+                fits = false;
+                return;
+            }
+            segments.add(new long[] {number, index, 0});
+            startNumber = number;
+            startIndex = index;
+            minSlope = 0;
+            maxSlope = Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Returns the index or null if keys' distribution doesn't fit the model.
+         */
+        public LearnedIndex build() {
+            if (!fits || segments.isEmpty()) {
+                return null;
+            }
+            finishSegment();
+
+            MemorySegment data = MemorySegment.ofArray(new byte[HEADER_BYTES + segments.size() * SEGMENT_BYTES]);
+            data.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, ERROR);
+            data.set(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES, maxEqualRun);
+            data.set(ValueLayout.JAVA_LONG_UNALIGNED, 2 * Long.BYTES, segments.size());
+            long offset = HEADER_BYTES;
+            for (long[] segment : segments) {
+                for (long value : segment) {
+                    data.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+                    offset += Long.BYTES;
+                }
+            }
+            return new LearnedIndex(data);
+        }
+
+        private void finishSegment() {
+            double slope = Double.isInfinite(maxSlope) ? minSlope : (minSlope + maxSlope) / 2;
+            segments.getLast()[2] = Double.doubleToRawLongBits(slope);
+        }
+    }
+}
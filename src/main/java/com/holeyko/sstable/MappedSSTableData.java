@@ -0,0 +1,48 @@
+package com.holeyko.sstable;
+
+import com.holeyko.utils.MadviseUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Data of the file mapped into memory. Slices are returned without copying.
+ */
+public class MappedSSTableData implements SSTableData {
+    private final MemorySegment data;
+
+    /**
+     * @param adviseRandom whether the mapping is advised as random, so point lookups don't trigger readahead
+     */
+    public MappedSSTableData(MemorySegment data, boolean adviseRandom) {
+        this.data = data;
+        if (adviseRandom) {
+            MadviseUtils.advise(data, 0, data.byteSize(), MadviseUtils.Advice.RANDOM);
+        }
+    }
+
+    @Override
+    public long byteSize() {
+        return data.byteSize();
+    }
+
+    @Override
+    public long getLong(long offset) {
+        return data.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+    }
+
+    @Override
+    public MemorySegment read(long offset, long size) {
+        return data.asSlice(offset, size);
+    }
+
+    @Override
+    public void advise(long offset, long size, MadviseUtils.Advice advice) {
+        MadviseUtils.advise(data, offset, size, advice);
+    }
+
+    @Override
+    public void close() {
+        // Mapping is released with the arena
+    }
+}
@@ -0,0 +1,177 @@
+package com.holeyko.sstable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Data of the file read by positional reads. Bytes are read into pooled off-heap buffers
+ * and copied to the heap, so nothing refers to the file after reading.
+ * With direct reads the file is opened with O_DIRECT and reads are aligned to the block size.
+ */
+public class PreadSSTableData implements SSTableData {
+    private static final int BUFFER_ALIGNMENT = 4096;
+    // Reads bigger than the largest size class allocate their own buffer
+    private static final BufferPool[] bufferPools = {
+            new BufferPool(16 * 1024, 256),
+            new BufferPool(64 * 1024, 64),
+            new BufferPool(256 * 1024, 16),
+            new BufferPool(1024 * 1024, 4)
+    };
+    // ExtendedOpenOption is JDK specific, so it's looked up reflectively. Null if the JDK doesn't have it
+    private static final OpenOption DIRECT = findDirectOption();
+
+    private final FileChannel channel;
+    private final long size;
+    private final int alignment;
+
+    public PreadSSTableData(Path file, boolean direct) throws IOException {
+        this.alignment = direct ? Math.toIntExact(Files.getFileStore(file).getBlockSize()) : 1;
+        if (alignment > BUFFER_ALIGNMENT) {
+            throw new IOException("Block size %d is bigger than alignment of buffers".formatted(alignment));
+        }
+
+        if (direct && DIRECT == null) {
+            throw new IOException("Direct reads aren't supported by the JDK");
+        }
+        OpenOption[] options = direct
+                ? new OpenOption[] {READ, DIRECT}
+                : new OpenOption[] {READ};
+        this.channel = FileChannel.open(file, options);
+        this.size = channel.size();
+    }
+
+    @Override
+    public long byteSize() {
+        return size;
+    }
+
+    @Override
+    public long getLong(long offset) {
+        return withBytes(offset, Long.BYTES, bytes -> bytes.get(ValueLayout.JAVA_LONG_UNALIGNED, 0));
+    }
+
+    @Override
+    public MemorySegment read(long offset, long size) {
+        return withBytes(offset, size, bytes -> MemorySegment.ofArray(bytes.toArray(ValueLayout.JAVA_BYTE)));
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T withBytes(long offset, long size, Function<MemorySegment, T> action) {
+        long from = offset - offset % alignment;
+        long to = Math.min(this.size, offset + size);
+        to += (alignment - to % alignment) % alignment;
+
+        ByteBuffer buffer = acquireBuffer(Math.toIntExact(to - from));
+        try {
+            long position = from;
+            // Last block of the file is read partially, so reading doesn't continue after the end
+            while (buffer.hasRemaining() && position < this.size) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+            if (position < offset + size) {
+                throw new EOFException("Bytes [%d;%d) are out of file".formatted(offset, offset + size));
+            }
+
+            return action.apply(MemorySegment.ofBuffer(buffer.flip()).asSlice(offset - from, size));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static ByteBuffer acquireBuffer(int size) {
+        for (BufferPool pool : bufferPools) {
+            if (size <= pool.bufferBytes) {
+                return pool.acquire().clear().limit(size);
+            }
+        }
+        return allocateAligned(size);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        for (BufferPool pool : bufferPools) {
+            if (buffer.capacity() == pool.bufferBytes) {
+                pool.release(buffer);
+                return;
+            }
+        }
+    }
+
+    private static OpenOption findDirectOption() {
+        try {
+            for (Object option : Class.forName("com.sun.nio.file.ExtendedOpenOption").getEnumConstants()) {
+                if (((Enum<?>) option).name().equals("DIRECT")) {
+                    return (OpenOption) option;
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // Not a HotSpot based JDK
+        }
+        return null;
+    }
+
+    private static ByteBuffer allocateAligned(int size) {
+        // Aligned slice drops unaligned parts at both ends
+        int alignedSize = (size + BUFFER_ALIGNMENT - 1) / BUFFER_ALIGNMENT * BUFFER_ALIGNMENT;
+        return ByteBuffer.allocateDirect(alignedSize + BUFFER_ALIGNMENT)
+                .alignedSlice(BUFFER_ALIGNMENT)
+                .limit(size)
+                .slice();
+    }
+
+    private static final class BufferPool {
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger countBuffers = new AtomicInteger();
+        private final int bufferBytes;
+        private final int maxBuffers;
+
+        BufferPool(int bufferBytes, int maxBuffers) {
+            this.bufferBytes = bufferBytes;
+            this.maxBuffers = maxBuffers;
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = buffers.poll();
+            if (buffer == null) {
+                return allocateAligned(bufferBytes);
+            }
+            countBuffers.decrementAndGet();
+            return buffer;
+        }
+
+        void release(ByteBuffer buffer) {
+            if (countBuffers.incrementAndGet() <= maxBuffers) {
+                buffers.add(buffer);
+            } else {
+                countBuffers.decrementAndGet();
+            }
+        }
+    }
+}
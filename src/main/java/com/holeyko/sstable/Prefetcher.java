@@ -0,0 +1,36 @@
+package com.holeyko.sstable;
+
+import com.holeyko.utils.MadviseUtils;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms chunks of SSTables' files in background ahead of long scans.
+ * Requests are dropped while too many are pending, so scans never wait for prefetching.
+ */
+public class Prefetcher implements Closeable {
+    public static final long CHUNK_BYTES = 1 << 20;
+    private static final int MAX_PENDING_REQUESTS = 64;
+
+    private final ExecutorService worker = new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_REQUESTS),
+            new ThreadPoolExecutor.DiscardPolicy()
+    );
+
+    public void prefetch(SSTableData data, long offset, long size) {
+        worker.execute(() -> data.advise(offset, size, MadviseUtils.Advice.WILLNEED));
+    }
+
+    @Override
+    public void close() {
+        worker.close();
+    }
+}
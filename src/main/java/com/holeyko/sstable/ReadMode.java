@@ -0,0 +1,21 @@
+package com.holeyko.sstable;
+
+/**
+ * How SSTables' files are read.
+ */
+public enum ReadMode {
+    /**
+     * Files are mapped into memory, pages are cached by the kernel.
+     */
+    MMAP,
+    /**
+     * Records are read by positional reads into pooled off-heap buffers and copied to the heap,
+     * so memory isn't held by reads and readers don't stall on page faults.
+     */
+    PREAD,
+    /**
+     * As {@link #PREAD}, but the page cache is bypassed by O_DIRECT with aligned reads.
+     * Every read goes to the device, so it suits workloads with their own cache.
+     */
+    DIRECT_PREAD
+}
@@ -2,11 +2,20 @@ package com.holeyko.sstable;
 
 import com.holeyko.entry.BaseEntry;
 import com.holeyko.entry.Entry;
+import com.holeyko.entry.ExpiringEntry;
+import com.holeyko.entry.RangeTombstones;
+import com.holeyko.filter.BloomFilter;
+import com.holeyko.filter.PrefixExtractor;
 import com.holeyko.iterators.FutureIterator;
 import com.holeyko.iterators.LazyIterator;
+import com.holeyko.ratelimit.RateLimiter;
 import com.holeyko.utils.FileUtils;
+import com.holeyko.utils.MadviseUtils;
 import com.holeyko.utils.MemorySegmentUtils;
 import com.holeyko.utils.NumberUtils;
+import com.holeyko.vlog.ValueLog;
+import com.holeyko.vlog.ValueLogEntry;
+import com.holeyko.vlog.ValuePointer;
 
 import java.io.IOException;
 import java.lang.foreign.Arena;
@@ -14,11 +23,18 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
@@ -26,60 +42,352 @@ import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 public class SSTable {
+    // Meta, size info, sizes of key and value and expiration time
+    private static final int MAX_RECORD_HEADER_BYTES = 2 + 2 * Long.BYTES + Long.BYTES;
+    private static final int OFFSETS_BATCH_SIZE = 512;
+
     private final long id;
-    private final MemorySegment data;
+    private final SSTableData data;
     private final int countRecords;
-
-    public SSTable(Path path, long id, Arena arena) throws IOException {
+    private final RangeTombstones rangeTombstones;
+    private final ValueLog valueLog;
+    private final PrefixExtractor prefixExtractor;
+    private final BloomFilter prefixFilter;
+    private final HashIndex hashIndex;
+    private final LearnedIndex learnedIndex;
+    private final MemorySegment abbreviatedKeys;
+    private final SSTableProperties properties;
+    // Size of every key if sizes of keys aren't stored in records, otherwise 0
+    private final int fixedKeyBytes;
+    private final Prefetcher prefetcher;
+    private final Path directory;
+
+    public SSTable(
+            Path path,
+            long id,
+            Arena arena,
+            ValueLog valueLog,
+            PrefixExtractor prefixExtractor,
+            ReadMode readMode,
+            boolean adviseRandom,
+            Prefetcher prefetcher
+    ) throws IOException {
         this.id = id;
+        this.valueLog = valueLog;
+        this.prefixExtractor = prefixExtractor;
+        this.prefetcher = prefetcher;
+        this.directory = path;
         Path dataFile = FileUtils.makePath(path, Long.toString(id), FileUtils.DATA_FILE_EXT);
 
-        try (FileChannel dataFileChannel = FileChannel.open(dataFile, READ)) {
-            this.data = dataFileChannel.map(MapMode.READ_ONLY, 0, dataFileChannel.size(), arena);
-            this.countRecords = (int) (this.data.get(ValueLayout.JAVA_LONG, 0) / Long.BYTES);
+        if (readMode == ReadMode.MMAP) {
+            try (FileChannel dataFileChannel = FileChannel.open(dataFile, READ)) {
+                this.data = new MappedSSTableData(
+                        dataFileChannel.map(MapMode.READ_ONLY, 0, dataFileChannel.size(), arena),
+                        adviseRandom
+                );
+            }
+        } else {
+            this.data = new PreadSSTableData(dataFile, readMode == ReadMode.DIRECT_PREAD);
+        }
+
+        SSTableFooter footer = readValidFooter(data, id);
+        this.countRecords = footer.countRecords();
+        MemorySegment rangeTombstonesSection = footer.section(SSTableFooter.RANGE_TOMBSTONES_SECTION);
+        this.rangeTombstones = rangeTombstonesSection == null
+                ? RangeTombstones.empty()
+                : RangeTombstones.fromSegment(rangeTombstonesSection);
+        this.prefixFilter = readPrefixFilter(footer.section(SSTableFooter.PREFIX_FILTER_SECTION), prefixExtractor);
+        MemorySegment hashIndexSection = footer.section(SSTableFooter.HASH_INDEX_SECTION);
+        this.hashIndex = hashIndexSection == null ? null : HashIndex.fromSegment(hashIndexSection);
+        MemorySegment learnedIndexSection = footer.section(SSTableFooter.LEARNED_INDEX_SECTION);
+        this.learnedIndex = learnedIndexSection == null ? null : LearnedIndex.fromSegment(learnedIndexSection);
+        this.abbreviatedKeys = footer.section(SSTableFooter.ABBREVIATED_KEYS_SECTION);
+        MemorySegment propertiesSection = footer.section(SSTableFooter.PROPERTIES_SECTION);
+        this.properties = propertiesSection == null ? null : SSTableProperties.fromSegment(propertiesSection);
+        MemorySegment keyFormatSection = footer.section(SSTableFooter.KEY_FORMAT_SECTION);
+        this.fixedKeyBytes = keyFormatSection == null
+                ? 0
+                : (int) keyFormatSection.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+    }
+
+    /**
+     * Reads the footer and checks that offsets of records fit the file. The data is closed if the file is corrupted.
+     */
+    private static SSTableFooter readValidFooter(SSTableData data, long id) throws IOException {
+        try {
+            SSTableFooter footer = SSTableFooter.read(data);
+            long offsetsBytes = (long) footer.countRecords() * Long.BYTES;
+            if (footer.countRecords() < 0 || offsetsBytes > data.byteSize()
+                    || footer.countRecords() > 0 && data.getLong(0) != offsetsBytes) {
+                throw new IOException("Offsets of records don't fit the file");
+            }
+            return footer;
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            throw new IOException("SSTable[id=%d] is corrupted".formatted(id), e);
         }
     }
 
+    /**
+     * Returns statistics of this table or null if the table was saved without them.
+     */
+    public SSTableProperties properties() {
+        return properties;
+    }
+
+    /**
+     * Returns entry by key, entry with null value if the key is deleted by a range tombstone of this table
+     * or null if this table doesn't know about the key.
+     */
     public Entry<MemorySegment> findEntry(MemorySegment key) {
-        int offsetIndex = binSearchIndex(key, true);
+        if (!mayContainKey(key)) {
+            return findRangeTombstone(key);
+        }
+
+        int offsetIndex = findIndex(key);
         if (offsetIndex < 0) {
-            return null;
+            return findRangeTombstone(key);
         }
-        return new BaseEntry<>(key, readValue(getRecordInfo(getOffset(offsetIndex))));
+        return readEntry(key, getRecordInfo(getOffset(offsetIndex)));
     }
 
-    public FutureIterator<Entry<MemorySegment>> findEntries(MemorySegment from, MemorySegment to) {
-        int fromIndex = 0;
-        int toIndex = countRecords;
-        if (from != null) {
-            int fromOffsetIndex = binSearchIndex(from, true);
-            fromIndex = fromOffsetIndex < 0 ? -(fromOffsetIndex + 1) : fromOffsetIndex;
+    /**
+     * Returns index of the record with the key by the hash index if the table has it or by binary search.
+     * @return index of the record or negative value if there is no such record
+     */
+    private int findIndex(MemorySegment key) {
+        if (hashIndex != null) {
+            return hashIndex.find(key, index -> readKey(getRecordInfo(getOffset(index))));
         }
-        if (to != null) {
-            int toOffsetIndex = binSearchIndex(to, false);
-            toIndex = toOffsetIndex < 0 ? -toOffsetIndex : toOffsetIndex;
+        return binSearchIndex(key, true);
+    }
+
+    /**
+     * Checks by the prefix Bloom filter whether this table may contain keys with the prefix.
+     */
+    public boolean mayContainPrefix(MemorySegment prefix) {
+        if (prefixFilter == null) {
+            return true;
+        }
+
+        MemorySegment extractedPrefix = prefixExtractor.extract(prefix);
+        return extractedPrefix == null || prefixFilter.mightContain(extractedPrefix);
+    }
+
+    private boolean mayContainKey(MemorySegment key) {
+        return mayContainPrefix(key);
+    }
+
+    /**
+     * Returns range tombstones of this table. They hide entries of older tables only.
+     */
+    public RangeTombstones rangeTombstones() {
+        return rangeTombstones;
+    }
+
+    /**
+     * Finds entries by keys in one pass: search of every key starts from the position of the previous one.
+     * If the table has the hash index, every key is looked up by it.
+     * @param sortedKeys keys in ascending order without duplicates
+     * @return entries in order of keys, null for absent keys, entries with null value for deleted by range
+     */
+    public List<Entry<MemorySegment>> findEntries(List<MemorySegment> sortedKeys) {
+        List<Entry<MemorySegment>> result = new ArrayList<>(sortedKeys.size());
+        int lowIndex = -1;
+        for (MemorySegment key : sortedKeys) {
+            if (lowIndex + 1 >= countRecords || !mayContainKey(key)) {
+                result.add(findRangeTombstone(key));
+                continue;
+            }
+            if (hashIndex != null) {
+                result.add(findEntry(key));
+                continue;
+            }
+
+            int offsetIndex = binSearchIndex(key, true, lowIndex);
+            if (offsetIndex < 0) {
+                lowIndex = -(offsetIndex + 1) - 1;
+                result.add(findRangeTombstone(key));
+            } else {
+                lowIndex = offsetIndex;
+                result.add(readEntry(key, getRecordInfo(getOffset(offsetIndex))));
+            }
         }
 
-        Iterator<Long> offsetsIterator = getOffsetIterator(fromIndex, toIndex);
+        return result;
+    }
+
+    public FutureIterator<Entry<MemorySegment>> findEntries(MemorySegment from, MemorySegment to) {
+        return findEntries(from, to, false);
+    }
+
+    public FutureIterator<Entry<MemorySegment>> findEntries(
+            MemorySegment from,
+            MemorySegment to,
+            boolean descending
+    ) {
+        int fromIndex = getFromIndex(from);
+        int toIndex = getToIndex(to);
+
+        Iterator<Long> offsetsIterator = descending
+                ? getDescendingOffsetIterator(fromIndex, toIndex)
+                : getOffsetIterator(fromIndex, toIndex);
+        ScanReadahead recordsReadahead = recordsReadahead(fromIndex, toIndex, descending);
         return new LazyIterator<>(
                 () -> {
-                    RecordInfo recordInfo = getRecordInfo(offsetsIterator.next());
-                    return new BaseEntry<>(readKey(recordInfo), readValue(recordInfo));
+                    long offset = offsetsIterator.next();
+                    recordsReadahead.advance(offset);
+                    return readEntry(getRecordInfo(offset));
                 },
                 offsetsIterator::hasNext
         );
     }
 
+    /**
+     * Hints that the whole table is going to be read once, e.g. by compaction.
+     */
+    public void adviseSequential() {
+        data.advise(0, data.byteSize(), MadviseUtils.Advice.SEQUENTIAL);
+    }
+
+    public void forEachValuePointer(Consumer<ValuePointer> action) {
+        Iterator<Long> offsetsIterator = getOffsetIterator(0, countRecords);
+        ScanReadahead recordsReadahead = recordsReadahead(0, countRecords, false);
+        while (offsetsIterator.hasNext()) {
+            long offset = offsetsIterator.next();
+            recordsReadahead.advance(offset);
+            RecordInfo recordInfo = getRecordInfo(offset);
+            if (SSTableMeta.isValuePointer(recordInfo.meta())) {
+                action.accept(ValuePointer.read(data.read(recordInfo.valueOffset(), ValuePointer.BYTES), 0));
+            }
+        }
+    }
+
+    public int countEntries(MemorySegment from, MemorySegment to) {
+        return Math.max(0, getToIndex(to) - getFromIndex(from));
+    }
+
+    /**
+     * Returns the median key of this table in range [from;to) which is strictly greater than from.
+     * The key is copied to the heap, so it stays valid after the table is deleted.
+     */
+    public MemorySegment findMiddleKey(MemorySegment from, MemorySegment to) {
+        int fromIndex = getFromIndex(from);
+        int toIndex = getToIndex(to);
+        if (toIndex - fromIndex < 2) {
+            return null;
+        }
+
+        return copyKey((fromIndex + toIndex) / 2);
+    }
+
+    /**
+     * Returns the least key of records copied to the heap or null if there are no records.
+     */
+    public MemorySegment minKey() {
+        if (properties != null) {
+            return properties.minKey();
+        }
+        return countRecords == 0 ? null : copyKey(0);
+    }
+
+    /**
+     * Returns the greatest key of records copied to the heap or null if there are no records.
+     */
+    public MemorySegment maxKey() {
+        if (properties != null) {
+            return properties.maxKey();
+        }
+        return countRecords == 0 ? null : copyKey(countRecords - 1);
+    }
+
+    private MemorySegment copyKey(int index) {
+        MemorySegment key = readKey(getRecordInfo(getOffset(index)));
+        return MemorySegment.ofArray(key.toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    /**
+     * Checks whether rewriting of the table would drop anything: range tombstones, removed or expired records
+     * or values which are relocated from their value log files. It's answered by properties if the table has them,
+     * otherwise or if the table has values in relocated files headers of records are read.
+     */
+    public boolean hasGarbage(long now, Set<Long> relocatedFileIds) {
+        if (!rangeTombstones.isEmpty()) {
+            return true;
+        }
+        if (properties != null) {
+            if (properties.countTombstones() > 0 || properties.minExpiresAt() <= now) {
+                return true;
+            }
+            if (relocatedFileIds.isEmpty() || properties.countValuePointers() == 0) {
+                return false;
+            }
+        }
+
+        Iterator<Long> offsetsIterator = getOffsetIterator(0, countRecords);
+        ScanReadahead recordsReadahead = recordsReadahead(0, countRecords, false);
+        while (offsetsIterator.hasNext()) {
+            long offset = offsetsIterator.next();
+            recordsReadahead.advance(offset);
+            RecordInfo recordInfo = getRecordInfo(offset);
+            if (SSTableMeta.isRemovedValue(recordInfo.meta()) || recordInfo.expiresAt() <= now) {
+                return true;
+            }
+            if (!relocatedFileIds.isEmpty() && SSTableMeta.isValuePointer(recordInfo.meta())) {
+                MemorySegment pointer = data.read(recordInfo.valueOffset(), ValuePointer.BYTES);
+                if (relocatedFileIds.contains(ValuePointer.read(pointer, 0).fileId())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int getFromIndex(MemorySegment from) {
+        if (from == null) {
+            return 0;
+        }
+        int fromOffsetIndex = binSearchIndex(from, true);
+        return fromOffsetIndex < 0 ? -(fromOffsetIndex + 1) : fromOffsetIndex;
+    }
+
+    private int getToIndex(MemorySegment to) {
+        if (to == null) {
+            return countRecords;
+        }
+        int toOffsetIndex = binSearchIndex(to, false);
+        return toOffsetIndex < 0 ? -toOffsetIndex : toOffsetIndex;
+    }
+
     private int binSearchIndex(MemorySegment key, boolean lowerBound) {
-        int l = -1;
+        return binSearchIndex(key, lowerBound, -1);
+    }
+
+    private int binSearchIndex(MemorySegment key, boolean lowerBound, int lowIndex) {
+        int l = lowIndex;
         int r = countRecords;
+        if (abbreviatedKeys != null) {
+            // Records with smaller abbreviations have smaller keys and vice versa,
+            // so only records with the same abbreviation are compared by keys
+            long abbreviation = MemorySegmentUtils.abbreviate(key);
+            l = searchAbbreviation(abbreviation, l, r, false);
+            r = searchAbbreviation(abbreviation, l, r, true) + 1;
+        }
+        if (learnedIndex != null) {
+            int learnedL = Math.max(l, learnedIndex.fromIndex(key) - 1);
+            int learnedR = Math.min(r, learnedIndex.toIndex(key) + 1);
+            // The model is approximate for absent keys, so bounds are used only if they really enclose the key
+            if (learnedL < learnedR
+                    && (learnedL == l || compareKey(learnedL, key) < 0)
+                    && (learnedR == r || compareKey(learnedR, key) > 0)) {
+                l = learnedL;
+                r = learnedR;
+            }
+        }
+
         while (l + 1 < r) {
             int mid = (l + r) / 2;
-            RecordInfo recordInfo = getRecordInfo(getOffset(mid));
-            int compareResult = MemorySegmentUtils.compareMemorySegments(
-                    data, recordInfo.keyOffset(), recordInfo.valueOffset(),
-                    key, 0, key.byteSize()
-            );
+            int compareResult = compareKey(mid, key);
 
             if (compareResult == 0) {
                 return mid;
@@ -93,45 +401,135 @@ public class SSTable {
         return lowerBound ? -r - 1 : -l - 1;
     }
 
+    /**
+     * Returns the last index in [l;r) which abbreviation is less than the abbreviation
+     * or not greater than it if inclusive, l if there is no such index.
+     */
+    private int searchAbbreviation(long abbreviation, int l, int r, boolean inclusive) {
+        int low = l;
+        int high = r;
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            int compareResult = Long.compareUnsigned(
+                    abbreviatedKeys.getAtIndex(ValueLayout.JAVA_LONG_UNALIGNED, mid),
+                    abbreviation
+            );
+            if (compareResult < 0 || inclusive && compareResult == 0) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compareKey(int index, MemorySegment key) {
+        long recordOffset = getOffset(index);
+        // Header and no more key bytes than the searched key has are read at once
+        MemorySegment record = data.read(
+                recordOffset,
+                Math.min(MAX_RECORD_HEADER_BYTES + key.byteSize(), data.byteSize() - recordOffset)
+        );
+        RecordInfo recordInfo = parseRecordInfo(recordOffset, record, fixedKeyBytes);
+        long headerSize = recordInfo.keyOffset() - recordOffset;
+        if (fixedKeyBytes != 0 && key.byteSize() == fixedKeyBytes) {
+            return MemorySegmentUtils.compareFixedKeys(record.asSlice(headerSize, fixedKeyBytes), key, fixedKeyBytes);
+        }
+        if (recordInfo.keySize() <= key.byteSize()) {
+            return MemorySegmentUtils.compareMemorySegments(record.asSlice(headerSize, recordInfo.keySize()), key);
+        }
+
+        int compareResult = MemorySegmentUtils.compareMemorySegments(record.asSlice(headerSize, key.byteSize()), key);
+        return compareResult == 0 ? 1 : compareResult;
+    }
+
     private RecordInfo getRecordInfo(long recordOffset) {
-        long curOffset = recordOffset + 1;
-        byte sizeInfo = data.get(ValueLayout.JAVA_BYTE, curOffset++);
+        // Header is read at once, so reading by pread needs one call
+        MemorySegment header = data.read(
+                recordOffset,
+                Math.min(MAX_RECORD_HEADER_BYTES, data.byteSize() - recordOffset)
+        );
+        return parseRecordInfo(recordOffset, header, fixedKeyBytes);
+    }
+
+    /**
+     * Returns key of the record written by {@link #writeRecord} at the offset of the segment.
+     * @param fixedKeyBytes size of keys if records don't store it, otherwise 0
+     */
+    public static MemorySegment recordKey(MemorySegment records, long recordOffset, int fixedKeyBytes) {
+        RecordInfo recordInfo = parseRecordInfo(recordOffset, records.asSlice(recordOffset), fixedKeyBytes);
+        return records.asSlice(recordInfo.keyOffset(), recordInfo.keySize());
+    }
+
+    private static RecordInfo parseRecordInfo(long recordOffset, MemorySegment header, int fixedKeyBytes) {
+        long curOffset = 1;
+        byte sizeInfo = header.get(ValueLayout.JAVA_BYTE, curOffset++);
         int keySizeSize = sizeInfo >> 4;
         int valueSizeSize = sizeInfo & 0xf;
 
         byte[] keySizeInBytes = new byte[keySizeSize];
         for (int i = 0; i < keySizeSize; ++i) {
-            keySizeInBytes[i] = data.get(ValueLayout.JAVA_BYTE, curOffset++);
+            keySizeInBytes[i] = header.get(ValueLayout.JAVA_BYTE, curOffset++);
         }
         byte[] valueSizeInBytes = new byte[valueSizeSize];
         for (int i = 0; i < valueSizeSize; ++i) {
-            valueSizeInBytes[i] = data.get(ValueLayout.JAVA_BYTE, curOffset++);
+            valueSizeInBytes[i] = header.get(ValueLayout.JAVA_BYTE, curOffset++);
         }
 
-        long keySize = NumberUtils.fromBytes(keySizeInBytes);
+        long keySize = fixedKeyBytes == 0 ? NumberUtils.fromBytes(keySizeInBytes) : fixedKeyBytes;
         long valueSize = NumberUtils.fromBytes(valueSizeInBytes);
-        byte meta = data.get(ValueLayout.JAVA_BYTE, recordOffset);
-        return new RecordInfo(meta, keySize, curOffset, valueSize, curOffset + keySize);
+        byte meta = header.get(ValueLayout.JAVA_BYTE, 0);
+        long expiresAt = Entry.NEVER_EXPIRES;
+        if (SSTableMeta.isExpiring(meta)) {
+            expiresAt = header.get(ValueLayout.JAVA_LONG_UNALIGNED, curOffset);
+            curOffset += Long.BYTES;
+        }
+        long keyOffset = recordOffset + curOffset;
+        return new RecordInfo(meta, keySize, keyOffset, valueSize, keyOffset + keySize, expiresAt);
     }
 
     private MemorySegment readKey(RecordInfo recordInfo) {
-        return data.asSlice(recordInfo.keyOffset(), recordInfo.keySize());
+        return data.read(recordInfo.keyOffset(), recordInfo.keySize());
     }
 
-    private MemorySegment readValue(RecordInfo recordInfo) {
-        if (SSTableMeta.isRemovedValue(recordInfo.meta())) {
-            return null;
+    private Entry<MemorySegment> findRangeTombstone(MemorySegment key) {
+        return rangeTombstones.covers(key) ? new BaseEntry<>(key, null) : null;
+    }
+
+    private Entry<MemorySegment> readEntry(MemorySegment key, RecordInfo recordInfo) {
+        return toEntry(key, recordInfo, data.read(recordInfo.valueOffset(), recordInfo.valueSize()));
+    }
+
+    private Entry<MemorySegment> readEntry(RecordInfo recordInfo) {
+        // Value is stored right after the key, so the record is read at once
+        MemorySegment record = data.read(recordInfo.keyOffset(), recordInfo.keySize() + recordInfo.valueSize());
+        return toEntry(record.asSlice(0, recordInfo.keySize()), recordInfo, record.asSlice(recordInfo.keySize()));
+    }
+
+    private Entry<MemorySegment> toEntry(MemorySegment key, RecordInfo recordInfo, MemorySegment storedValue) {
+        if (SSTableMeta.isValuePointer(recordInfo.meta())) {
+            return new ValueLogEntry(key, ValuePointer.read(storedValue, 0), valueLog, recordInfo.expiresAt());
+        }
+        MemorySegment value = SSTableMeta.isRemovedValue(recordInfo.meta()) ? null : storedValue;
+        if (SSTableMeta.isExpiring(recordInfo.meta())) {
+            return new ExpiringEntry<>(key, value, recordInfo.expiresAt());
         }
-        return data.asSlice(recordInfo.valueOffset(), recordInfo.valueSize());
+        return new BaseEntry<>(key, value);
     }
 
     private long getOffset(int index) {
-        return data.get(ValueLayout.JAVA_LONG, (long) index * Long.BYTES);
+        return data.getLong((long) index * Long.BYTES);
     }
 
+    /**
+     * Offsets are read by batches, so iterating by pread doesn't need a call per offset.
+     */
     private Iterator<Long> getOffsetIterator(int fromIndex, int toIndex) {
         return new Iterator<>() {
+            private final ScanReadahead readahead = offsetsReadahead(fromIndex, toIndex, false);
             private int curIndex = fromIndex;
+            private int batchFromIndex = fromIndex;
+            private MemorySegment batch = MemorySegment.NULL;
 
             @Override
             public boolean hasNext() {
@@ -143,37 +541,109 @@ public class SSTable {
                 if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                return getOffset(curIndex++);
+                if (curIndex - batchFromIndex >= batch.byteSize() / Long.BYTES) {
+                    readahead.advance((long) curIndex * Long.BYTES);
+                    batchFromIndex = curIndex;
+                    batch = readOffsets(curIndex, Math.min(toIndex, curIndex + OFFSETS_BATCH_SIZE));
+                }
+                return batch.getAtIndex(ValueLayout.JAVA_LONG_UNALIGNED, curIndex++ - batchFromIndex);
+            }
+        };
+    }
+
+    private Iterator<Long> getDescendingOffsetIterator(int fromIndex, int toIndex) {
+        return new Iterator<>() {
+            private final ScanReadahead readahead = offsetsReadahead(fromIndex, toIndex, true);
+            private int curIndex = toIndex - 1;
+            private int batchFromIndex = toIndex;
+            private MemorySegment batch = MemorySegment.NULL;
+
+            @Override
+            public boolean hasNext() {
+                return curIndex >= fromIndex;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (curIndex < batchFromIndex) {
+                    readahead.advance((long) curIndex * Long.BYTES);
+                    batchFromIndex = Math.max(fromIndex, curIndex + 1 - OFFSETS_BATCH_SIZE);
+                    batch = readOffsets(batchFromIndex, curIndex + 1);
+                }
+                return batch.getAtIndex(ValueLayout.JAVA_LONG_UNALIGNED, curIndex-- - batchFromIndex);
             }
         };
     }
 
+    private ScanReadahead offsetsReadahead(int fromIndex, int toIndex, boolean descending) {
+        return new ScanReadahead(
+                prefetcher,
+                data,
+                (long) fromIndex * Long.BYTES,
+                (long) toIndex * Long.BYTES,
+                descending
+        );
+    }
+
+    private ScanReadahead recordsReadahead(int fromIndex, int toIndex, boolean descending) {
+        if (fromIndex >= toIndex) {
+            return new ScanReadahead(prefetcher, data, 0, 0, descending);
+        }
+        long recordsTo = toIndex < countRecords ? getOffset(toIndex) : data.byteSize();
+        return new ScanReadahead(prefetcher, data, getOffset(fromIndex), recordsTo, descending);
+    }
+
+    private MemorySegment readOffsets(int fromIndex, int toIndex) {
+        return data.read((long) fromIndex * Long.BYTES, (long) (toIndex - fromIndex) * Long.BYTES);
+    }
+
+    /**
+     * Saves entries to a new SSTable. Values which should be separated are appended to the value log file
+     * with the same id, values of {@link ValueLogEntry}s are kept in their files unless the file is relocated.
+     * @param relocatedFileIds value log files which live values must be moved to the new value log file
+     * @param rangeTombstones range tombstones which hide entries of older tables
+     * @param options optional sections to build
+     * @param throttle throttle of written bytes
+     */
     public static boolean save(
             Path prefix,
             long id,
             Iterable<Entry<MemorySegment>> entries,
-            Arena arena
+            Arena arena,
+            ValueLog valueLog,
+            Set<Long> relocatedFileIds,
+            RangeTombstones rangeTombstones,
+            SSTableOptions options,
+            RateLimiter.Throttle throttle
     ) throws IOException {
         long dataSize = 0;
         int countRecords = 0;
+        SSTableIndexBuilder.PrefixCounter prefixCounter = new SSTableIndexBuilder.PrefixCounter(
+                options.prefixExtractor()
+        );
+        boolean fixedKeys = options.fixedKeyBytes() != 0;
         for (Entry<MemorySegment> entry : entries) {
             ++countRecords;
-            dataSize += 2;
-            MemorySegment key = entry.key();
-            MemorySegment value = entry.value();
-
-            dataSize += NumberUtils.toBytes(key.byteSize()).length + key.byteSize();
-            if (value != null) {
-                dataSize += NumberUtils.toBytes(value.byteSize()).length + value.byteSize();
-            }
+            prefixCounter.add(entry.key());
+            fixedKeys &= entry.key().byteSize() == options.fixedKeyBytes();
+            dataSize += recordBytes(entry, valueLog, relocatedFileIds);
+        }
+        if (fixedKeys) {
+            dataSize -= (long) countRecords * NumberUtils.toBytes(options.fixedKeyBytes()).length;
         }
 
-        if (countRecords == 0) {
+        if (countRecords == 0 && rangeTombstones.isEmpty()) {
             return false;
         }
 
         Path tmpDataFile = FileUtils.makePath(prefix, Long.toString(id), FileUtils.TMP_FILE_EXT);
-        try (FileChannel dataFileChannel = FileChannel.open(tmpDataFile, CREATE, WRITE, READ, TRUNCATE_EXISTING)) {
+        try (
+                ValueLog.Writer valueLogWriter = valueLog == null ? null : valueLog.openWriter(id, throttle);
+                FileChannel dataFileChannel = FileChannel.open(tmpDataFile, CREATE, WRITE, READ, TRUNCATE_EXISTING)
+        ) {
             long dataOffset = (long) countRecords * Long.BYTES;
             MemorySegment dataSegment = dataFileChannel.map(
                 MapMode.READ_WRITE,
@@ -182,35 +652,41 @@ public class SSTable {
                 arena
             );
 
+            SSTableIndexBuilder indexBuilder = new SSTableIndexBuilder(options, countRecords, prefixCounter.count());
+            SSTableProperties.Builder propertiesBuilder = SSTableProperties.builder(rangeTombstones.ranges().size());
             int curEntryNumber = 0;
             for (Entry<MemorySegment> entry : entries) {
                 dataSegment.set(ValueLayout.JAVA_LONG, (long) curEntryNumber * Long.BYTES, dataOffset);
-
-                MemorySegment key = entry.key();
-                MemorySegment value = entry.value();
-                byte[] keySizeInBytes = NumberUtils.toBytes(key.byteSize());
-                byte[] valueSizeInBytes = value == null
-                        ? new byte[0]
-                        : NumberUtils.toBytes(value.byteSize());
-
-                byte meta = SSTableMeta.buildMeta(entry);
-                byte sizeInfo = (byte) ((keySizeInBytes.length << 4) | valueSizeInBytes.length);
-                dataSegment.set(ValueLayout.JAVA_BYTE, dataOffset++, meta);
-                dataSegment.set(ValueLayout.JAVA_BYTE, dataOffset++, sizeInfo);
-
-                MemorySegmentUtils.copyByteArray(keySizeInBytes, dataSegment, dataOffset);
-                dataOffset += keySizeInBytes.length;
-                MemorySegmentUtils.copyByteArray(valueSizeInBytes, dataSegment, dataOffset);
-                dataOffset += valueSizeInBytes.length;
-                MemorySegment.copy(key, 0, dataSegment, dataOffset, key.byteSize());
-                dataOffset += key.byteSize();
-                if (value != null) {
-                    MemorySegment.copy(value, 0, dataSegment, dataOffset, value.byteSize());
-                    dataOffset += value.byteSize();
+                long recordOffset = dataOffset;
+
+                indexBuilder.add(entry.key(), curEntryNumber);
+                ValuePointer valuePointer = null;
+                if (isValuePointer(entry, valueLog, relocatedFileIds)) {
+                    valuePointer = entry instanceof ValueLogEntry valueLogEntry
+                            && !relocatedFileIds.contains(valueLogEntry.pointer().fileId())
+                            ? valueLogEntry.pointer()
+                            : valueLogWriter.append(entry.value());
                 }
+                dataOffset = writeRecord(entry, valuePointer, fixedKeys, dataSegment, dataOffset);
 
+                propertiesBuilder.add(entry, valuePointer != null);
+                throttle.written(Long.BYTES + dataOffset - recordOffset);
                 ++curEntryNumber;
             }
+
+            Map<Integer, MemorySegment> sections = new HashMap<>();
+            if (!rangeTombstones.isEmpty()) {
+                sections.put(SSTableFooter.RANGE_TOMBSTONES_SECTION, rangeTombstones.toSegment());
+            }
+            indexBuilder.putSections(sections);
+            if (fixedKeys) {
+                sections.put(SSTableFooter.KEY_FORMAT_SECTION, keyFormatSection(options.fixedKeyBytes()));
+            }
+            sections.put(
+                    SSTableFooter.PROPERTIES_SECTION,
+                    propertiesBuilder.build(System.currentTimeMillis()).toSegment()
+            );
+            SSTableFooter.write(dataFileChannel, dataOffset, countRecords, sections);
         }
 
         Path dataFile = FileUtils.makePath(prefix, Long.toString(id), FileUtils.DATA_FILE_EXT);
@@ -218,21 +694,170 @@ public class SSTable {
         return true;
     }
 
+    /**
+     * Key format section: size of every key, which isn't stored in records.
+     */
+    public static MemorySegment keyFormatSection(int fixedKeyBytes) {
+        MemorySegment section = MemorySegment.ofArray(new byte[Long.BYTES]);
+        section.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, fixedKeyBytes);
+        return section;
+    }
+
+    /**
+     * Writes record of the entry at the offset, the value is replaced by the pointer if it isn't null.
+     * The target must have {@link #recordBytes} bytes after the offset.
+     * @param fixedKey whether size of the key isn't stored, because all keys of the SSTable have the same size
+     * @return offset after the record
+     */
+    public static long writeRecord(
+            Entry<MemorySegment> entry,
+            ValuePointer valuePointer,
+            boolean fixedKey,
+            MemorySegment target,
+            long offset
+    ) {
+        MemorySegment key = entry.key();
+        MemorySegment value = valuePointer == null ? entry.value() : null;
+        byte[] keySizeInBytes = fixedKey ? new byte[0] : NumberUtils.toBytes(key.byteSize());
+        byte[] valueSizeInBytes;
+        if (valuePointer != null) {
+            valueSizeInBytes = NumberUtils.toBytes(ValuePointer.BYTES);
+        } else if (value == null) {
+            valueSizeInBytes = new byte[0];
+        } else {
+            valueSizeInBytes = NumberUtils.toBytes(value.byteSize());
+        }
+
+        long curOffset = offset;
+        byte meta = SSTableMeta.buildMeta(entry, valuePointer != null);
+        byte sizeInfo = (byte) ((keySizeInBytes.length << 4) | valueSizeInBytes.length);
+        target.set(ValueLayout.JAVA_BYTE, curOffset++, meta);
+        target.set(ValueLayout.JAVA_BYTE, curOffset++, sizeInfo);
+
+        MemorySegmentUtils.copyByteArray(keySizeInBytes, target, curOffset);
+        curOffset += keySizeInBytes.length;
+        MemorySegmentUtils.copyByteArray(valueSizeInBytes, target, curOffset);
+        curOffset += valueSizeInBytes.length;
+        if (SSTableMeta.isExpiring(meta)) {
+            target.set(ValueLayout.JAVA_LONG_UNALIGNED, curOffset, entry.expiresAt());
+            curOffset += Long.BYTES;
+        }
+        MemorySegment.copy(key, 0, target, curOffset, key.byteSize());
+        curOffset += key.byteSize();
+        if (valuePointer != null) {
+            valuePointer.write(target, curOffset);
+            curOffset += ValuePointer.BYTES;
+        } else if (value != null) {
+            MemorySegment.copy(value, 0, target, curOffset, value.byteSize());
+            curOffset += value.byteSize();
+        }
+        return curOffset;
+    }
+
+    private static BloomFilter readPrefixFilter(MemorySegment section, PrefixExtractor prefixExtractor) {
+        if (section == null || prefixExtractor == null) {
+            return null;
+        }
+
+        long nameSize = section.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        String name = new String(
+                section.asSlice(Long.BYTES, nameSize).toArray(ValueLayout.JAVA_BYTE),
+                StandardCharsets.UTF_8
+        );
+        if (!name.equals(prefixExtractor.name())) {
+            return null;
+        }
+        return BloomFilter.fromSegment(section.asSlice(Long.BYTES + nameSize));
+    }
+
+    /**
+     * Returns size of the entry's record in SSTable without its offset.
+     */
+    public static long recordBytes(Entry<MemorySegment> entry, ValueLog valueLog, Set<Long> relocatedFileIds) {
+        return recordBytes(entry, isValuePointer(entry, valueLog, relocatedFileIds), false);
+    }
+
+    /**
+     * Returns size of the entry's record in SSTable without its offset.
+     * @param valuePointer whether the value is replaced by a value pointer
+     * @param fixedKey whether size of the key isn't stored
+     */
+    public static long recordBytes(Entry<MemorySegment> entry, boolean valuePointer, boolean fixedKey) {
+        MemorySegment key = entry.key();
+        long recordBytes = 2 + (fixedKey ? 0 : NumberUtils.toBytes(key.byteSize()).length) + key.byteSize();
+        if (entry.expiresAt() != Entry.NEVER_EXPIRES) {
+            recordBytes += Long.BYTES;
+        }
+        if (valuePointer) {
+            recordBytes += NumberUtils.toBytes(ValuePointer.BYTES).length + ValuePointer.BYTES;
+        } else if (entry.value() != null) {
+            MemorySegment value = entry.value();
+            recordBytes += NumberUtils.toBytes(value.byteSize()).length + value.byteSize();
+        }
+        return recordBytes;
+    }
+
+    private static boolean isValuePointer(
+            Entry<MemorySegment> entry,
+            ValueLog valueLog,
+            Set<Long> relocatedFileIds
+    ) {
+        if (entry instanceof ValueLogEntry valueLogEntry
+                && !relocatedFileIds.contains(valueLogEntry.pointer().fileId())) {
+            return true;
+        }
+        return valueLog != null && valueLog.shouldSeparate(entry.value());
+    }
+
+    public long getSizeBytes() {
+        return data.byteSize();
+    }
+
+    /**
+     * Releases resources of reading. Must be called only when the table isn't read anymore.
+     */
+    public void close() {
+        data.close();
+    }
+
     public long getId() {
         return id;
     }
 
+    /**
+     * Returns directory of the table's file.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
     private static final class SSTableMeta {
         private static final byte REMOVE_VALUE = 0x1;
+        private static final byte VALUE_POINTER = 0x2;
+        private static final byte EXPIRING = 0x4;
 
         public static boolean isRemovedValue(byte meta) {
             return (meta & REMOVE_VALUE) == REMOVE_VALUE;
         }
 
-        public static byte buildMeta(Entry<MemorySegment> entry) {
+        public static boolean isValuePointer(byte meta) {
+            return (meta & VALUE_POINTER) == VALUE_POINTER;
+        }
+
+        public static boolean isExpiring(byte meta) {
+            return (meta & EXPIRING) == EXPIRING;
+        }
+
+        public static byte buildMeta(Entry<MemorySegment> entry, boolean valuePointer) {
             byte meta = 0;
 
-            if (entry.value() == null) {
+            if (entry.expiresAt() != Entry.NEVER_EXPIRES) {
+                meta |= SSTableMeta.EXPIRING;
+            }
+
+            if (valuePointer) {
+                meta |= SSTableMeta.VALUE_POINTER;
+            } else if (entry.value() == null) {
                 meta |= SSTableMeta.REMOVE_VALUE;
             }
             return meta;
@@ -248,13 +873,22 @@ public class SSTable {
         private final long keyOffset;
         private final long valueSize;
         private final long valueOffset;
-
-        private RecordInfo(byte meta, long keySize, long keyOffset, long valueSize, long valueOffset) {
+        private final long expiresAt;
+
+        private RecordInfo(
+                byte meta,
+                long keySize,
+                long keyOffset,
+                long valueSize,
+                long valueOffset,
+                long expiresAt
+        ) {
             this.meta = meta;
             this.keySize = keySize;
             this.keyOffset = keyOffset;
             this.valueSize = valueSize;
             this.valueOffset = valueOffset;
+            this.expiresAt = expiresAt;
         }
 
         public byte meta() {
@@ -276,5 +910,9 @@ public class SSTable {
         public long valueOffset() {
             return valueOffset;
         }
+
+        public long expiresAt() {
+            return expiresAt;
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.holeyko.sstable;
+
+import com.holeyko.utils.MadviseUtils;
+
+import java.io.Closeable;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Bytes of SSTable's file. Longs are read in native order.
+ */
+public interface SSTableData extends Closeable {
+    long byteSize();
+
+    long getLong(long offset);
+
+    /**
+     * Returns bytes [offset;offset + size) which stay readable after the file is deleted.
+     */
+    MemorySegment read(long offset, long size);
+
+    /**
+     * Hints how bytes [offset;offset + size) are going to be read. Does nothing if data isn't mapped.
+     */
+    default void advise(long offset, long size, MadviseUtils.Advice advice) {
+    }
+
+    @Override
+    void close();
+}
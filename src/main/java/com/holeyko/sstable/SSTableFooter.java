@@ -0,0 +1,102 @@
+package com.holeyko.sstable;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Footer of SSTable file which follows records:
+ * sections, index of sections (type, offset, size) and trailer (count of records, count of sections, magic).
+ * Files without the footer have only offsets and records, count of records is derived from the first offset.
+ */
+public final class SSTableFooter {
+    public static final int RANGE_TOMBSTONES_SECTION = 1;
+    public static final int PREFIX_FILTER_SECTION = 2;
+    public static final int HASH_INDEX_SECTION = 3;
+    public static final int LEARNED_INDEX_SECTION = 4;
+    public static final int PROPERTIES_SECTION = 5;
+    public static final int KEY_FORMAT_SECTION = 6;
+    public static final int ABBREVIATED_KEYS_SECTION = 7;
+
+    private static final long MAGIC = 0x4c534d5353544142L;
+    private static final int TRAILER_BYTES = 3 * Long.BYTES;
+    private static final int SECTION_INDEX_RECORD_BYTES = 3 * Long.BYTES;
+
+    private final int countRecords;
+    private final Map<Integer, MemorySegment> sections;
+
+    private SSTableFooter(int countRecords, Map<Integer, MemorySegment> sections) {
+        this.countRecords = countRecords;
+        this.sections = sections;
+    }
+
+    public int countRecords() {
+        return countRecords;
+    }
+
+    public MemorySegment section(int type) {
+        return sections.get(type);
+    }
+
+    public static SSTableFooter read(SSTableData data) {
+        long size = data.byteSize();
+        if (size < TRAILER_BYTES || data.getLong(size - Long.BYTES) != MAGIC) {
+            return new SSTableFooter((int) (data.getLong(0) / Long.BYTES), Map.of());
+        }
+
+        long trailerOffset = size - TRAILER_BYTES;
+        int countRecords = (int) data.getLong(trailerOffset);
+        int countSections = (int) data.getLong(trailerOffset + Long.BYTES);
+
+        Map<Integer, MemorySegment> sections = new HashMap<>();
+        long indexOffset = trailerOffset - (long) countSections * SECTION_INDEX_RECORD_BYTES;
+        MemorySegment index = data.read(indexOffset, (long) countSections * SECTION_INDEX_RECORD_BYTES);
+        for (int i = 0; i < countSections; ++i) {
+            long recordOffset = (long) i * SECTION_INDEX_RECORD_BYTES;
+            int type = (int) index.get(ValueLayout.JAVA_LONG_UNALIGNED, recordOffset);
+            long sectionOffset = index.get(ValueLayout.JAVA_LONG_UNALIGNED, recordOffset + Long.BYTES);
+            long sectionSize = index.get(ValueLayout.JAVA_LONG_UNALIGNED, recordOffset + 2 * Long.BYTES);
+            sections.put(type, data.read(sectionOffset, sectionSize));
+        }
+
+        return new SSTableFooter(countRecords, sections);
+    }
+
+    /**
+     * Writes sections and footer to the channel starting from position.
+     */
+    public static void write(
+            FileChannel channel,
+            long position,
+            int countRecords,
+            Map<Integer, MemorySegment> sections
+    ) throws IOException {
+        long curPosition = position;
+        ByteBuffer index = ByteBuffer.allocate(sections.size() * SECTION_INDEX_RECORD_BYTES + TRAILER_BYTES)
+                .order(ByteOrder.nativeOrder());
+        for (Map.Entry<Integer, MemorySegment> section : sections.entrySet()) {
+            index.putLong(section.getKey());
+            index.putLong(curPosition);
+            index.putLong(section.getValue().byteSize());
+            curPosition = writeFully(channel, section.getValue().asByteBuffer(), curPosition);
+        }
+        index.putLong(countRecords);
+        index.putLong(sections.size());
+        index.putLong(MAGIC);
+
+        writeFully(channel, index.flip(), curPosition);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long curPosition = position;
+        while (buffer.hasRemaining()) {
+            curPosition += channel.write(buffer, curPosition);
+        }
+        return curPosition;
+    }
+}
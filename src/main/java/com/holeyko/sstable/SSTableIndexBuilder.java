@@ -0,0 +1,120 @@
+package com.holeyko.sstable;
+
+import com.holeyko.filter.BloomFilter;
+import com.holeyko.filter.PrefixExtractor;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Builds optional search sections of SSTable from keys of its records added in ascending order.
+ */
+public class SSTableIndexBuilder {
+    private static final int PREFIX_FILTER_BITS_PER_KEY = 10;
+    // Section of abbreviated keys must fit a byte array
+    private static final int MAX_ABBREVIATED_KEYS = Integer.MAX_VALUE / Long.BYTES;
+
+    private final PrefixExtractor prefixExtractor;
+    private final BloomFilter prefixFilter;
+    private final HashIndex hashIndex;
+    private final LearnedIndex.Builder learnedIndexBuilder;
+    private final MemorySegment abbreviatedKeys;
+
+    /**
+     * @param countPrefixes count of distinct prefixes of keys, see {@link PrefixCounter}
+     */
+    public SSTableIndexBuilder(SSTableOptions options, int countRecords, long countPrefixes) {
+        this.prefixExtractor = options.prefixExtractor();
+        this.prefixFilter = prefixExtractor == null
+                ? null
+                : BloomFilter.create(countPrefixes, PREFIX_FILTER_BITS_PER_KEY);
+        this.hashIndex = options.hashIndex() ? HashIndex.create(countRecords) : null;
+        this.learnedIndexBuilder = options.learnedIndex() ? LearnedIndex.builder(countRecords) : null;
+        this.abbreviatedKeys = options.abbreviatedKeyIndex() && countRecords <= MAX_ABBREVIATED_KEYS
+                ? MemorySegment.ofArray(new byte[countRecords * Long.BYTES])
+                : null;
+    }
+
+    public void add(MemorySegment key, int index) {
+        if (prefixFilter != null) {
+            MemorySegment keyPrefix = prefixExtractor.extract(key);
+            if (keyPrefix != null) {
+                prefixFilter.add(keyPrefix);
+            }
+        }
+        if (hashIndex != null) {
+            hashIndex.add(key, index);
+        }
+        if (learnedIndexBuilder != null) {
+            learnedIndexBuilder.add(key, index);
+        }
+        if (abbreviatedKeys != null) {
+            abbreviatedKeys.setAtIndex(ValueLayout.JAVA_LONG_UNALIGNED, index, MemorySegmentUtils.abbreviate(key));
+        }
+    }
+
+    public void putSections(Map<Integer, MemorySegment> sections) {
+        if (prefixFilter != null) {
+            sections.put(SSTableFooter.PREFIX_FILTER_SECTION, writePrefixFilter());
+        }
+        if (hashIndex != null) {
+            sections.put(SSTableFooter.HASH_INDEX_SECTION, hashIndex.toSegment());
+        }
+        LearnedIndex learnedIndex = learnedIndexBuilder == null ? null : learnedIndexBuilder.build();
+        if (learnedIndex != null) {
+            sections.put(SSTableFooter.LEARNED_INDEX_SECTION, learnedIndex.toSegment());
+        }
+        if (abbreviatedKeys != null) {
+            sections.put(SSTableFooter.ABBREVIATED_KEYS_SECTION, abbreviatedKeys);
+        }
+    }
+
+    /**
+     * Prefix filter section: size of extractor's name, the name and the filter.
+     */
+    private MemorySegment writePrefixFilter() {
+        byte[] name = prefixExtractor.name().getBytes(StandardCharsets.UTF_8);
+        MemorySegment filter = prefixFilter.toSegment();
+        MemorySegment section = MemorySegment.ofArray(new byte[(int) (Long.BYTES + name.length + filter.byteSize())]);
+        section.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, name.length);
+        MemorySegmentUtils.copyByteArray(name, section, Long.BYTES);
+        MemorySegment.copy(filter, 0, section, Long.BYTES + name.length, filter.byteSize());
+        return section;
+    }
+
+    /**
+     * Counts distinct prefixes of keys added in ascending order, so the prefix filter can be sized.
+     */
+    public static final class PrefixCounter {
+        private final PrefixExtractor prefixExtractor;
+        private MemorySegment prevPrefix;
+        private long count;
+
+        public PrefixCounter(PrefixExtractor prefixExtractor) {
+            this.prefixExtractor = prefixExtractor;
+        }
+
+        /**
+         * The key must stay unchanged until the next key is added.
+         */
+        public void add(MemorySegment key) {
+            if (prefixExtractor == null) {
+                return;
+            }
+
+            MemorySegment keyPrefix = prefixExtractor.extract(key);
+            if (keyPrefix != null && (prevPrefix == null
+                    || MemorySegmentUtils.compareMemorySegments(prevPrefix, keyPrefix) != 0)) {
+                ++count;
+                prevPrefix = keyPrefix;
+            }
+        }
+
+        public long count() {
+            return count;
+        }
+    }
+}
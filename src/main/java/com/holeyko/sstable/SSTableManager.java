@@ -1,117 +1,566 @@
 package com.holeyko.sstable;
 
+import com.holeyko.dao.Config;
 import com.holeyko.entry.Entry;
+import com.holeyko.entry.RangeTombstone;
+import com.holeyko.entry.RangeTombstones;
+import com.holeyko.iterators.AbbreviatedKeyIterator;
+import com.holeyko.iterators.ConcatenatingIterator;
 import com.holeyko.iterators.EntrySkipNullsIterator;
 import com.holeyko.iterators.FutureIterator;
 import com.holeyko.iterators.GatheringIterator;
 import com.holeyko.iterators.PriorityIterator;
+import com.holeyko.ratelimit.RateLimiter;
 import com.holeyko.utils.FileUtils;
 import com.holeyko.utils.MemorySegmentUtils;
 import com.holeyko.utils.NumberUtils;
+import com.holeyko.vlog.ValueLog;
+import com.holeyko.vlog.ValueLogEntry;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import static com.holeyko.utils.FileUtils.DATA_FILE_EXT;
+import static com.holeyko.utils.FileUtils.VALUE_LOG_FILE_EXT;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+public final class SSTableManager {
+    private static final int MAX_COMPACTION_OUTPUTS = 1 << 20;
+    private static final int OPENING_THREADS = 16;
+    private static final long COPY_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_MIGRATION_CHECK_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
-public class SSTableManager {
     private final Logger log = Logger.getLogger(SSTableManager.class.getName());
 
     private final Arena arena = Arena.ofShared();
     private final Path path;
+    private final ValueLog valueLog;
+    private final SSTableOptions options;
+    private final Comparator<MemorySegment> keyComparator;
+    private final RateLimiter writeRateLimiter;
+    private final ReadMode readMode;
+    private final boolean adviseRandom;
+    private final long compactionTargetFileBytes;
+    private final double compactionTombstoneRatio;
+    // Null if all SSTables are in the base path
+    private final TieringPolicy tieringPolicy;
     private AtomicLong nextId;
+    // Incremented before compacted tables are deleted, so lookups which could miss the compacted table restart
+    private final AtomicLong deletionVersion = new AtomicLong();
+    // A migrated table is registered in the cold directory before its hot file is deleted.
+    // The cold copy goes first, so readers walking from the newest tables meet it after the hot one
     private final NavigableSet<SafeSSTable> safeSSTables = new ConcurrentSkipListSet<>(
             Comparator.comparingLong((SafeSSTable table) -> table.ssTable().getId())
+                    .thenComparing(table -> isHot(table.ssTable()))
     );
+    // Runs compaction and migration, so migrated tables can't be compacted meanwhile
     private final ExecutorService compactWorker = Executors.newSingleThreadExecutor();
     private final ExecutorService deleteWorker = Executors.newVirtualThreadPerTaskExecutor();
-    private final Lock lock = new ReentrantLock();
+    private final Prefetcher prefetcher = new Prefetcher();
+    // Saving of SSTables can be concurrent, but not with removing of unused value log files
+    // and allocating of compaction's id. Compaction holds it only to register its outputs,
+    // because it removes value log files by itself, so its long writes don't block checkpoints and flushes
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Ingestions are registered under the read lock like flushes, this one makes their overlap checks atomic
+    private final Lock ingestLock = new ReentrantLock();
     private Future<?> compactionTask = CompletableFuture.completedFuture(null);
+    private Future<?> migrationTask = CompletableFuture.completedFuture(null);
+    // Null if SSTables don't migrate by age
+    private final ScheduledExecutorService migrationScheduler;
     private Future<?> deleteTask = CompletableFuture.completedFuture(null);
+    // Completed when all SSTables existing at start are opened
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
 
     public SSTableManager(Path path) throws IOException {
-        this.path = path;
+        this(new Config(path, 0));
+    }
+
+    public SSTableManager(Config config) throws IOException {
+        this.path = config.basePath();
+        this.options = SSTableOptions.of(config);
+        this.keyComparator = MemorySegmentUtils.keyComparator(config.fixedKeyBytes());
+        this.writeRateLimiter = new RateLimiter(config.writeRateLimitBytesPerSecond());
+        this.readMode = config.readMode();
+        this.adviseRandom = config.adviseRandom();
+        this.compactionTargetFileBytes = config.compactionTargetFileBytes();
+        this.compactionTombstoneRatio = config.compactionTombstoneRatio();
+        this.tieringPolicy = config.tieringPolicy();
+        if (tieringPolicy != null
+                && tieringPolicy.coldPath().toAbsolutePath().normalize().equals(path.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("Cold path must differ from the base path: " + path);
+        }
         if (Files.notExists(path)) {
             Files.createDirectories(path);
         }
+        if (tieringPolicy != null) {
+            Files.createDirectories(tieringPolicy.coldPath());
+        }
+        this.migrationScheduler = tieringPolicy == null || tieringPolicy.coldMinAgeMillis() == 0
+                ? null
+                : Executors.newSingleThreadScheduledExecutor();
+        this.valueLog = new ValueLog(path, arena, config.valueSeparationThresholdBytes());
         this.nextId = new AtomicLong(loadSStables());
+        if (migrationScheduler != null) {
+            // Tables migrate no later than a quarter of the age after they become cold or a minute
+            long period = Math.max(
+                    1,
+                    Math.min(tieringPolicy.coldMinAgeMillis() / 4, MAX_MIGRATION_CHECK_PERIOD_MILLIS)
+            );
+            migrationScheduler.scheduleWithFixedDelay(this::migrateColdSSTables, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Checks whether all SSTables existing at start are opened. Before that lookups are answered
+     * by opened SSTables if they have the key and wait for the rest otherwise.
+     * Range queries and compaction wait for all SSTables.
+     */
+    public boolean isReady() {
+        return ready.isDone() && !ready.isCompletedExceptionally();
+    }
+
+    /**
+     * Returns future which is completed when all SSTables existing at start are opened
+     * or completed exceptionally if some of them can't be opened.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return ready.copy();
+    }
+
+    /**
+     * Waits until opening of SSTables is finished successfully or not.
+     */
+    private void awaitOpened() {
+        ready.exceptionally(e -> null).join();
     }
 
+    private void awaitReady() {
+        try {
+            ready.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioEx) {
+                throw new UncheckedIOException(ioEx);
+            }
+            throw new IllegalStateException("SSTables weren't opened", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Waiting for SSTables was interrupted", e);
+        }
+    }
+
+    /**
+     * Loads entry by key walking from the newest SSTable to the oldest one.
+     * If compaction deletes tables meanwhile, the search restarts, because the compacted table
+     * is registered before old ones are deleted and could be missed.
+     */
     public Entry<MemorySegment> load(MemorySegment key) {
+        while (true) {
+            boolean wasOpened = ready.isDone();
+            long version = deletionVersion.get();
+            for (SafeSSTable safeSSTable : safeSSTables.reversed()) {
+                Entry<MemorySegment> entry = safeSSTable.findEntry(key);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+
+            if (!wasOpened) {
+                awaitOpened();
+            } else if (deletionVersion.get() == version) {
+                awaitReady();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Loads entries by keys walking from the newest SSTable to the oldest one.
+     * Keys found in a table aren't searched in older tables. Restarts if compaction deletes tables meanwhile.
+     * @param sortedKeys keys in ascending order without duplicates
+     * @return entries in order of keys, null for absent keys
+     */
+    public List<Entry<MemorySegment>> load(List<MemorySegment> sortedKeys) {
+        while (true) {
+            boolean wasOpened = ready.isDone();
+            long version = deletionVersion.get();
+            List<Entry<MemorySegment>> result = tryLoad(sortedKeys);
+            if (!wasOpened && result.contains(null)) {
+                awaitOpened();
+            } else if (deletionVersion.get() == version) {
+                if (result.contains(null)) {
+                    awaitReady();
+                }
+                return result;
+            }
+        }
+    }
+
+    private List<Entry<MemorySegment>> tryLoad(List<MemorySegment> sortedKeys) {
+        List<Entry<MemorySegment>> result = new ArrayList<>(Collections.nCopies(sortedKeys.size(), null));
+        List<Integer> pendingIndexes = new ArrayList<>(sortedKeys.size());
+        for (int i = 0; i < sortedKeys.size(); ++i) {
+            pendingIndexes.add(i);
+        }
+
         for (SafeSSTable safeSSTable : safeSSTables.reversed()) {
-            Entry<MemorySegment> entry = safeSSTable.findEntry(key);
-            if (entry != null) {
-                return entry;
+            if (pendingIndexes.isEmpty()) {
+                break;
+            }
+
+            List<Entry<MemorySegment>> found = safeSSTable.findEntries(
+                    pendingIndexes.stream().map(sortedKeys::get).toList()
+            );
+            if (found == null) {
+                continue;
             }
+
+            List<Integer> stillPendingIndexes = new ArrayList<>();
+            for (int i = 0; i < found.size(); ++i) {
+                if (found.get(i) == null) {
+                    stillPendingIndexes.add(pendingIndexes.get(i));
+                } else {
+                    result.set(pendingIndexes.get(i), found.get(i));
+                }
+            }
+            pendingIndexes = stillPendingIndexes;
         }
 
-        return null;
+        return result;
     }
 
     public List<FutureIterator<Entry<MemorySegment>>> load(MemorySegment from, MemorySegment to) {
-        return load(from, to, null);
+        return load(from, to, null, false, RangeTombstones.empty(), null);
+    }
+
+    public List<FutureIterator<Entry<MemorySegment>>> load(
+            MemorySegment from,
+            MemorySegment to,
+            boolean descending,
+            RangeTombstones newerRangeTombstones
+    ) {
+        return load(from, to, null, descending, newerRangeTombstones, null);
+    }
+
+    /**
+     * Loads entries with keys in [from;to) which all have the prefix.
+     * SSTables which can't contain the prefix by their prefix Bloom filters aren't searched.
+     */
+    public List<FutureIterator<Entry<MemorySegment>>> loadPrefix(
+            MemorySegment prefix,
+            MemorySegment from,
+            MemorySegment to,
+            boolean descending,
+            RangeTombstones newerRangeTombstones
+    ) {
+        return load(from, to, null, descending, newerRangeTombstones, prefix);
     }
 
     public List<FutureIterator<Entry<MemorySegment>>> load(MemorySegment from, MemorySegment to, Long toId) {
+        return load(from, to, toId == null ? null : id -> id < toId, false, RangeTombstones.empty(), null);
+    }
+
+    /**
+     * Returns iterators of SSTables from the oldest to the newest. Keys covered by range tombstones
+     * of newer SSTables or by newerRangeTombstones are skipped without reading.
+     * If compaction deletes tables meanwhile, iterators are closed and taken again, because the walk
+     * could pass the compacted table before it was registered and then miss its deleted inputs.
+     * @param loadedIds ids of SSTables to load, null means all SSTables
+     * @param prefix prefix of all keys in [from;to) to check prefix Bloom filters, null if there is no such prefix
+     */
+    public List<FutureIterator<Entry<MemorySegment>>> load(
+            MemorySegment from,
+            MemorySegment to,
+            LongPredicate loadedIds,
+            boolean descending,
+            RangeTombstones newerRangeTombstones,
+            MemorySegment prefix
+    ) {
+        awaitReady();
+        while (true) {
+            long version = deletionVersion.get();
+            List<FutureIterator<Entry<MemorySegment>>> iterators = tryLoad(
+                    from,
+                    to,
+                    loadedIds,
+                    descending,
+                    newerRangeTombstones,
+                    prefix
+            );
+            if (deletionVersion.get() == version) {
+                return iterators;
+            }
+            iterators.forEach(FutureIterator::close);
+        }
+    }
+
+    private List<FutureIterator<Entry<MemorySegment>>> tryLoad(
+            MemorySegment from,
+            MemorySegment to,
+            LongPredicate loadedIds,
+            boolean descending,
+            RangeTombstones newerRangeTombstones,
+            MemorySegment prefix
+    ) {
         List<FutureIterator<Entry<MemorySegment>>> iterators = new ArrayList<>();
+        RangeTombstones rangeTombstones = newerRangeTombstones;
 
-        for (SafeSSTable safeSSTable : safeSSTables) {
-            if (toId != null && toId <= safeSSTable.ssTable().getId()) {
-                break;
+        for (SafeSSTable safeSSTable : safeSSTables.reversed()) {
+            if (loadedIds != null && !loadedIds.test(safeSSTable.ssTable().getId())) {
+                continue;
             }
 
-            FutureIterator<Entry<MemorySegment>> iterator = safeSSTable.findEntries(from, to);
-            if (iterator.hasNext()) {
-                iterators.add(iterator);
+            RangeTombstones newerTableRangeTombstones = rangeTombstones;
+            rangeTombstones = rangeTombstones.merge(safeSSTable.ssTable().rangeTombstones());
+            if (prefix != null && !safeSSTable.ssTable().mayContainPrefix(prefix)) {
+                continue;
+            }
+
+            List<RangeTombstone> ranges = newerTableRangeTombstones.subtract(from, to);
+            List<FutureIterator<Entry<MemorySegment>>> rangeIterators = new ArrayList<>();
+            for (RangeTombstone range : descending ? ranges.reversed() : ranges) {
+                FutureIterator<Entry<MemorySegment>> iterator = safeSSTable.findEntries(
+                        range.from(),
+                        range.to(),
+                        descending
+                );
+                if (iterator.hasNext()) {
+                    rangeIterators.add(iterator);
+                }
+            }
+
+            if (rangeIterators.size() == 1) {
+                iterators.add(rangeIterators.getFirst());
+            } else if (!rangeIterators.isEmpty()) {
+                iterators.add(new ConcatenatingIterator<>(rangeIterators));
             }
         }
 
-        return iterators;
+        return iterators.reversed();
+    }
+
+    public long countEntries(MemorySegment from, MemorySegment to) {
+        long count = 0;
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            count += safeSSTable.countEntries(from, to);
+        }
+        return count;
+    }
+
+    /**
+     * Returns a key which splits range [from;to) of the table with the most entries in it into two halves.
+     * @return split key or null if there is no table with at least two entries in the range
+     */
+    public MemorySegment findSplitKey(MemorySegment from, MemorySegment to) {
+        SafeSSTable biggest = null;
+        int biggestCount = 0;
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            int count = safeSSTable.countEntries(from, to);
+            if (count > biggestCount) {
+                biggest = safeSSTable;
+                biggestCount = count;
+            }
+        }
+
+        return biggest == null ? null : biggest.findMiddleKey(from, to);
     }
 
     public long saveEntries(Iterable<Entry<MemorySegment>> entries) throws IOException {
-        return saveEntries(entries, null);
+        return saveEntries(entries, RangeTombstones.empty());
+    }
+
+    public long saveEntries(Iterable<Entry<MemorySegment>> entries, RangeTombstones rangeTombstones)
+            throws IOException {
+        return saveEntries(entries, null, Set.of(), rangeTombstones);
     }
 
     public long saveEntries(Iterable<Entry<MemorySegment>> entries, Long prepareId) throws IOException {
-        long id = prepareId == null ? nextId.getAndIncrement() : prepareId;
+        return saveEntries(entries, prepareId, Set.of(), RangeTombstones.empty());
+    }
 
-        lock.lock();
+    private long saveEntries(
+            Iterable<Entry<MemorySegment>> entries,
+            Long prepareId,
+            Set<Long> relocatedValueLogFileIds,
+            RangeTombstones rangeTombstones
+    ) throws IOException {
+        long id;
+        lock.readLock().lock();
         try {
-            boolean saved = SSTable.save(path, id, entries, arena);
-
-            if (saved) {
-                safeSSTables.add(new SafeSSTable(new SSTable(path, id, arena)));
-            } else {
-                id = -1;
+            id = prepareId == null ? nextId.getAndIncrement() : prepareId;
+            SafeSSTable saved = writeSSTable(entries, id, relocatedValueLogFileIds, rangeTombstones, prepareId == null);
+            if (saved == null) {
+                return -1;
             }
 
-            return id;
+            safeSSTables.add(saved);
         } finally {
-            lock.unlock();
+            lock.readLock().unlock();
+        }
+
+        if (prepareId == null) {
+            compactTombstoneDense();
+        }
+        migrateColdSSTables();
+        return id;
+    }
+
+    /**
+     * Checks whether some SSTable has bigger share of tombstones than the configured ratio.
+     * Compaction drops tombstones of compacted SSTables, so it isn't triggered again by the same SSTables.
+     */
+    private boolean hasTombstoneDenseSSTable() {
+        return findTombstoneDenseSSTable(Long.MAX_VALUE) != null;
+    }
+
+    /**
+     * Returns SSTable with id less than toId which has the biggest share of tombstones above the configured ratio
+     * or null if there is no such SSTable.
+     */
+    private SafeSSTable findTombstoneDenseSSTable(long toId) {
+        if (compactionTombstoneRatio <= 0) {
+            return null;
+        }
+
+        SafeSSTable densest = null;
+        double densestRatio = compactionTombstoneRatio;
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            if (safeSSTable.ssTable().getId() >= toId) {
+                break;
+            }
+            SSTableProperties properties = safeSSTable.ssTable().properties();
+            if (!safeSSTable.isDeleted() && properties != null && properties.tombstoneRatio() > densestRatio) {
+                densest = safeSSTable;
+                densestRatio = properties.tombstoneRatio();
+            }
+        }
+        return densest;
+    }
+
+    /**
+     * Returns properties of SSTables by their ids from the oldest SSTable to the newest one.
+     * SSTables saved without properties are skipped. Waits until all SSTables are opened.
+     */
+    public Map<Long, SSTableProperties> properties() {
+        awaitReady();
+        Map<Long, SSTableProperties> result = new LinkedHashMap<>();
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            SSTableProperties properties = safeSSTable.ssTable().properties();
+            if (!safeSSTable.isDeleted() && properties != null) {
+                result.put(safeSSTable.ssTable().getId(), properties);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Saves entries into SSTable with the id and opens it without registering.
+     * @return opened SSTable or null if there is nothing to save
+     */
+    private SafeSSTable writeSSTable(
+            Iterable<Entry<MemorySegment>> entries,
+            long id,
+            Set<Long> relocatedValueLogFileIds,
+            RangeTombstones rangeTombstones,
+            boolean flush
+    ) throws IOException {
+        Path directory = flush ? path : compactionDirectory();
+        boolean saved = SSTable.save(
+                directory,
+                id,
+                entries,
+                arena,
+                valueLog,
+                relocatedValueLogFileIds,
+                rangeTombstones,
+                options,
+                // Flushes have priority over compaction, otherwise memory table can overflow
+                writeRateLimiter.throttle(flush)
+        );
+        if (!saved) {
+            return null;
         }
+        return new SafeSSTable(openSSTable(directory, id));
+    }
+
+    private SSTable openSSTable(Path directory, long id) throws IOException {
+        return new SSTable(
+                directory,
+                id,
+                arena,
+                valueLog,
+                options.prefixExtractor(),
+                readMode,
+                adviseRandom,
+                prefetcher
+        );
+    }
+
+    private Path compactionDirectory() {
+        return tieringPolicy != null && tieringPolicy.coldCompacted() ? tieringPolicy.coldPath() : path;
+    }
+
+    private boolean isHot(SSTable ssTable) {
+        return ssTable.getDirectory().equals(path);
+    }
+
+    /**
+     * Changes limit of bytes per second written by flushes and compaction, 0 means no limit.
+     */
+    public void setWriteRateLimit(long bytesPerSecond) {
+        writeRateLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * Returns total size of SSTables' files, value log files aren't counted.
+     */
+    public long sizeBytes() {
+        long sizeBytes = 0;
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            sizeBytes += safeSSTable.ssTable().getSizeBytes();
+        }
+        return sizeBytes;
     }
 
     public int size() {
@@ -119,33 +568,604 @@ public class SSTableManager {
     }
 
     public void compact() {
-        if (!compactionTask.isDone() || safeSSTables.size() <= 1) {
+        if (!compactionTask.isDone() || isReady() && safeSSTables.size() <= 1) {
             return;
         }
 
         compactionTask = compactWorker.submit(() -> {
             try {
-                long prepareId = nextId.getAndIncrement();
-                saveEntries(() -> loadUntil(prepareId), prepareId);
-                for (SafeSSTable safeSSTable : safeSSTables) {
-                    long curId = safeSSTable.ssTable().getId();
-                    if (curId >= prepareId) {
-                        break;
-                    }
-                    safeSSTable.setDeleted();
-                    deleteSSTable(safeSSTable);
-                }
+                awaitReady();
+                compactAll(allocateCompactionIds());
             } catch (Exception e) {
                 log.log(Level.WARNING, "Compaction was failed", e);
             }
         });
+        migrateColdSSTables();
+    }
+
+    /**
+     * Starts compaction of the SSTable with the biggest share of tombstones above the configured ratio
+     * together with SSTables which overlap it, so flushes of deletions don't rewrite the whole storage.
+     * Does nothing if compaction is already running.
+     */
+    private void compactTombstoneDense() {
+        if (!compactionTask.isDone() || !hasTombstoneDenseSSTable()) {
+            return;
+        }
+
+        compactionTask = compactWorker.submit(() -> {
+            try {
+                awaitReady();
+                CompactionIds ids = allocateCompactionIds();
+                SafeSSTable dense = findTombstoneDenseSSTable(ids.firstId());
+                if (dense == null) {
+                    return;
+                }
+
+                Set<Long> compactedIds = findOverlappingClosure(dense, ids.firstId());
+                if (compactedIds == null) {
+                    compactAll(ids);
+                } else {
+                    saveCompacted(ids, List.of(), Set.of(), compactedIds::contains);
+                    deleteCompacted(ids.firstId(), compactedIds::contains);
+                    collectValueLogGarbage();
+                }
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Compaction of SSTables with tombstones was failed", e);
+            }
+        });
+    }
+
+    /**
+     * Compacts all SSTables with ids less than the first reserved one.
+     */
+    private void compactAll(CompactionIds ids) throws IOException {
+        long prepareId = ids.firstId();
+        adviseSequential(prepareId);
+        Set<Long> relocatedValueLogFileIds = valueLog.isEmpty()
+                ? Set.of()
+                : valueLog.findGarbageFiles(collectLiveValueLogUsage(prepareId), prepareId);
+        List<SSTable> moved = moveSSTables(ids, relocatedValueLogFileIds);
+        saveCompacted(ids, moved, relocatedValueLogFileIds, id -> id < prepareId);
+        deleteCompacted(prepareId, id -> id < prepareId);
+        collectValueLogGarbage();
+    }
+
+    private void deleteCompacted(long toId, LongPredicate compactedIds) {
+        deletionVersion.incrementAndGet();
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            long curId = safeSSTable.ssTable().getId();
+            if (curId >= toId) {
+                break;
+            }
+            // Table of the previous compaction can be still in the set while it's being deleted
+            if (safeSSTable.isDeleted() || !compactedIds.test(curId)) {
+                continue;
+            }
+            safeSSTable.setDeleted();
+            deleteSSTable(safeSSTable);
+        }
+    }
+
+    /**
+     * Returns ids of SSTables with ids less than toId which key ranges, widened by their range tombstones,
+     * overlap the SSTable or, transitively, each other. Outputs of their compaction get the newest ids,
+     * that's right because no other SSTable has their keys, and tombstones can be dropped for the same reason.
+     * @return ids including the SSTable's one or null if all SSTables overlap
+     */
+    private Set<Long> findOverlappingClosure(SafeSSTable safeSSTable, long toId) {
+        List<KeySpan> spans = new ArrayList<>();
+        for (SafeSSTable curSSTable : safeSSTables) {
+            if (curSSTable.ssTable().getId() >= toId) {
+                break;
+            }
+            if (!curSSTable.isDeleted() && curSSTable != safeSSTable) {
+                spans.add(KeySpan.of(curSSTable));
+            }
+        }
+
+        Set<Long> result = new HashSet<>();
+        result.add(safeSSTable.ssTable().getId());
+        KeySpan closure = KeySpan.of(safeSSTable);
+        boolean widened = true;
+        while (widened) {
+            widened = false;
+            for (KeySpan span : spans) {
+                if (!result.contains(span.safeSSTable().ssTable().getId()) && closure.overlaps(span)) {
+                    result.add(span.safeSSTable().ssTable().getId());
+                    closure = closure.union(span);
+                    widened = true;
+                }
+            }
+        }
+        return result.size() > spans.size() ? null : result;
+    }
+
+    /**
+     * Starts migration of hot SSTables which match the size or the age rule of the tiering policy
+     * to the cold directory. It's also started after flushes, compactions and periodically if tables migrate by age.
+     * The table keeps its id: its copy is registered first, then the hot table is deleted as a compacted one.
+     */
+    public void migrateColdSSTables() {
+        if (tieringPolicy == null || !tieringPolicy.migrates() || !migrationTask.isDone() || !isReady()) {
+            return;
+        }
+
+        migrationTask = compactWorker.submit(() -> {
+            long now = System.currentTimeMillis();
+            for (SafeSSTable safeSSTable : safeSSTables) {
+                try {
+                    SSTable ssTable = safeSSTable.ssTable();
+                    if (!safeSSTable.isDeleted() && isHot(ssTable)
+                            && tieringPolicy.isCold(ssTable.getSizeBytes(), createdAtMillis(ssTable), now)) {
+                        migrateSSTable(safeSSTable);
+                    }
+                } catch (Exception e) {
+                    log.log(
+                            Level.WARNING,
+                            "Migration was failed for SSTable[id=%d]".formatted(safeSSTable.ssTable().getId()),
+                            e
+                    );
+                }
+            }
+        });
+    }
+
+    private long createdAtMillis(SSTable ssTable) throws IOException {
+        SSTableProperties properties = ssTable.properties();
+        if (properties != null) {
+            return properties.createdAtMillis();
+        }
+        Path file = FileUtils.makePath(ssTable.getDirectory(), Long.toString(ssTable.getId()), DATA_FILE_EXT);
+        return Files.getLastModifiedTime(file).toMillis();
+    }
+
+    private void migrateSSTable(SafeSSTable safeSSTable) throws IOException {
+        if (!safeSSTable.pin()) {
+            return;
+        }
+
+        long id = safeSSTable.ssTable().getId();
+        Path coldPath = tieringPolicy.coldPath();
+        try {
+            copySSTableFile(path, id, coldPath, id);
+            lock.readLock().lock();
+            try {
+                safeSSTables.add(new SafeSSTable(openSSTable(coldPath, id)));
+                deletionVersion.incrementAndGet();
+                safeSSTable.setDeleted();
+            } finally {
+                lock.readLock().unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(FileUtils.makePath(coldPath, Long.toString(id), DATA_FILE_EXT));
+            throw e;
+        } finally {
+            safeSSTable.unpin();
+        }
+        deleteSSTable(safeSSTable);
+    }
+
+    /**
+     * Copies SSTable's file through a temporary file, so the target appears complete.
+     * Copied bytes are throttled as compaction's writes.
+     */
+    private void copySSTableFile(Path sourceDirectory, long sourceId, Path targetDirectory, long targetId)
+            throws IOException {
+        Path tmpFile = FileUtils.makePath(targetDirectory, Long.toString(targetId), FileUtils.TMP_FILE_EXT);
+        RateLimiter.Throttle throttle = writeRateLimiter.throttle(false);
+        try (
+                FileChannel source = FileChannel.open(
+                        FileUtils.makePath(sourceDirectory, Long.toString(sourceId), DATA_FILE_EXT),
+                        READ
+                );
+                FileChannel target = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)
+        ) {
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long copied = source.transferTo(position, Math.min(COPY_CHUNK_BYTES, size - position), target);
+                throttle.written(copied);
+                position += copied;
+            }
+            target.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+
+        Path targetFile = FileUtils.makePath(targetDirectory, Long.toString(targetId), DATA_FILE_EXT);
+        Files.move(tmpFile, targetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reserves ids of compaction's outputs, SSTables with less ids are compacted. Saves allocate ids
+     * under the read lock, so all SSTables with less ids are registered when the write lock is acquired.
+     * Every output but the last one has at least target bytes, so their count is bounded by the compacted size.
+     * Besides, every compacted SSTable can be moved and can split the merged output once.
+     */
+    private CompactionIds allocateCompactionIds() {
+        lock.writeLock().lock();
+        try {
+            int countOutputs = compactionTargetFileBytes == 0
+                    ? 1
+                    : (int) Math.min(MAX_COMPACTION_OUTPUTS, sizeBytes() / compactionTargetFileBytes + 2);
+            int count = countOutputs + 2 * safeSSTables.size();
+            return new CompactionIds(nextId.getAndAdd(count), count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves compacted SSTables which overlap no other compacted SSTable and have nothing to drop
+     * to the first reserved ids without rewriting. The file gets a hard link with the new id,
+     * so entries are visible under the old id or the new one during the move.
+     * @return moved SSTables ordered by keys
+     */
+    private List<SSTable> moveSSTables(CompactionIds ids, Set<Long> relocatedValueLogFileIds) throws IOException {
+        List<SSTable> moved = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (SafeSSTable safeSSTable : findNonOverlappingSSTables(ids.firstId())) {
+            if (safeSSTable.ssTable().hasGarbage(now, relocatedValueLogFileIds)) {
+                continue;
+            }
+
+            SSTable movedSSTable = moveSSTable(safeSSTable, ids.firstId() + moved.size());
+            if (movedSSTable != null) {
+                moved.add(movedSSTable);
+            }
+        }
+        return moved;
+    }
+
+    private SSTable moveSSTable(SafeSSTable safeSSTable, long id) throws IOException {
+        long sourceId = safeSSTable.ssTable().getId();
+        Path sourceDirectory = safeSSTable.ssTable().getDirectory();
+        Path targetDirectory = compactionDirectory();
+        Path source = FileUtils.makePath(sourceDirectory, Long.toString(sourceId), DATA_FILE_EXT);
+        Path target = FileUtils.makePath(targetDirectory, Long.toString(id), DATA_FILE_EXT);
+        try {
+            // Tables move between tiers by copying, it's still cheaper than rewriting
+            if (sourceDirectory.equals(targetDirectory)) {
+                Files.createLink(target, source);
+            } else {
+                copySSTableFile(sourceDirectory, sourceId, targetDirectory, id);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.log(Level.WARNING, "SSTable[id=%d] can't be moved, it's rewritten".formatted(sourceId), e);
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            SSTable ssTable = openSSTable(targetDirectory, id);
+            safeSSTables.add(new SafeSSTable(ssTable));
+            deletionVersion.incrementAndGet();
+            safeSSTable.setDeleted();
+            deleteSSTable(safeSSTable);
+            return ssTable;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns SSTables with ids less than toId which key ranges, widened by their range tombstones,
+     * don't intersect key ranges of other such SSTables. Touching ranges are considered intersecting.
+     */
+    private List<SafeSSTable> findNonOverlappingSSTables(long toId) {
+        List<KeySpan> spans = new ArrayList<>();
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            if (safeSSTable.ssTable().getId() >= toId) {
+                break;
+            }
+            if (!safeSSTable.isDeleted()) {
+                spans.add(KeySpan.of(safeSSTable));
+            }
+        }
+        spans.sort((a, b) -> KeySpan.compareBounds(a.from(), b.from(), true));
+
+        List<SafeSSTable> result = new ArrayList<>();
+        MemorySegment maxTo = null;
+        for (int i = 0; i < spans.size(); ++i) {
+            KeySpan span = spans.get(i);
+            boolean overlapsPrevious = i > 0 && KeySpan.intersect(span.from(), maxTo);
+            boolean overlapsNext = i + 1 < spans.size() && KeySpan.intersect(spans.get(i + 1).from(), span.to());
+            if (span.hasRecords() && !overlapsPrevious && !overlapsNext) {
+                result.add(span.safeSSTable());
+            }
+            if (i == 0 || KeySpan.compareBounds(span.to(), maxTo, false) > 0) {
+                maxTo = span.to();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Saves entries of compacted SSTables into SSTables with reserved ids
+     * split by target size and by ranges of moved SSTables and registers them together.
+     * Outputs are split while they are written, see {@link CompactionOutput}.
+     * Every output only shadows compacted SSTables by the same entries, so it doesn't matter for readers
+     * and for recovery after crash whether a part of outputs is visible before compacted SSTables are deleted.
+     * Outputs are written without the lock: their ids are reserved, and value log files are removed only
+     * by the compaction thread or before SSTables are ready, so nothing removes value log files meanwhile.
+     * @param moved moved SSTables ordered by keys
+     * @param compactedIds ids of compacted SSTables, they are less than the first reserved one
+     */
+    private void saveCompacted(
+            CompactionIds ids,
+            List<SSTable> moved,
+            Set<Long> relocatedValueLogFileIds,
+            LongPredicate compactedIds
+    ) throws IOException {
+        long firstId = ids.firstId() + moved.size();
+        int maxOutputs = ids.count() - moved.size();
+        List<MemorySegment> movedMaxKeys = moved.stream().map(SSTable::maxKey).toList();
+        List<SafeSSTable> outputs = new ArrayList<>();
+        MemorySegment from = null;
+        int movedIndex = 0;
+        for (int i = 0; ; ++i) {
+            CompactionOutput output = new CompactionOutput(
+                    from,
+                    compactedIds,
+                    movedMaxKeys,
+                    movedIndex,
+                    relocatedValueLogFileIds,
+                    i + 1 == maxOutputs
+            );
+            SafeSSTable saved;
+            try {
+                // Other SSTables don't overlap compacted ones, so range tombstones have nothing to hide
+                saved = writeSSTable(output, firstId + i, relocatedValueLogFileIds, RangeTombstones.empty(), false);
+            } finally {
+                output.close();
+            }
+            if (saved != null) {
+                outputs.add(saved);
+            }
+            if (output.nextFrom == null) {
+                break;
+            }
+            from = output.nextFrom;
+            movedIndex = output.movedIndex;
+        }
+
+        lock.readLock().lock();
+        try {
+            safeSSTables.addAll(outputs);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Creates hard links of SSTables and value log files in the empty or absent target directory,
+     * so it can be opened as a separate storage. Files are copied if the target is on another file system.
+     * The set of files is taken while SSTables aren't written by flushes or registered by compaction,
+     * then its files are pinned until they are linked, so flushes and compaction aren't blocked by copying.
+     * Compaction registers its outputs before deleting its inputs, so every SSTable which turns out to be deleted
+     * is replaced by SSTables with bigger ids, which are in the set too.
+     * If linking fails, the target directory is cleared.
+     */
+    public void checkpoint(Path target) throws IOException {
+        awaitReady();
+        boolean targetExisted = Files.exists(target);
+        Files.createDirectories(target);
+        try (Stream<Path> files = Files.list(target)) {
+            if (files.findAny().isPresent()) {
+                throw new IOException("Directory of checkpoint isn't empty: " + target);
+            }
+        }
+
+        List<SafeSSTable> pinned = new ArrayList<>();
+        Set<Long> valueLogFileIds;
+        lock.writeLock().lock();
+        try {
+            for (SafeSSTable safeSSTable : safeSSTables) {
+                if (safeSSTable.pin()) {
+                    pinned.add(safeSSTable);
+                }
+            }
+            valueLogFileIds = valueLog.pin();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            for (SafeSSTable safeSSTable : pinned) {
+                safeSSTable.link(safeSSTable.ssTable().getDirectory(), target);
+            }
+            valueLog.link(target, valueLogFileIds);
+        } catch (IOException | RuntimeException e) {
+            try {
+                FileUtils.deleteRecursively(target);
+                if (targetExisted) {
+                    Files.createDirectories(target);
+                }
+            } catch (IOException cleanupEx) {
+                e.addSuppressed(cleanupEx);
+            }
+            throw e;
+        } finally {
+            pinned.forEach(SafeSSTable::unpin);
+            valueLog.unpin();
+        }
+    }
+
+    /**
+     * Registers SSTable files built by {@link SSTableWriter} as the newest SSTables, later files are newer.
+     * Files are hard-linked into the storage or copied if they are on another file system, so they stay
+     * in place. Linking and copying go to temporary names before the lock is taken, so flushes aren't blocked
+     * by copying. Then all files are renamed and registered at once under the read lock, as flushes are,
+     * so neither flushes nor compaction wait for ingestion.
+     * If the process crashes during registration, a part of the files can be ingested.
+     * @param checkOverlap whether to refuse files which key ranges overlap each other or existing SSTables,
+     *                     SSTables which are flushed concurrently aren't checked
+     * @return ids of ingested SSTables
+     * @throws IllegalArgumentException if checkOverlap is set and files overlap
+     */
+    public List<Long> ingest(List<Path> files, boolean checkOverlap) throws IOException {
+        awaitReady();
+        List<Path> stagedFiles = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                stagedFiles.add(stageFile(file));
+            }
+            return registerIngested(files, stagedFiles, checkOverlap);
+        } finally {
+            // Registered files are renamed already
+            for (Path stagedFile : stagedFiles) {
+                Files.deleteIfExists(stagedFile);
+            }
+        }
+    }
+
+    private List<Long> registerIngested(
+            List<Path> files,
+            List<Path> stagedFiles,
+            boolean checkOverlap
+    ) throws IOException {
+        List<SafeSSTable> ingested = new ArrayList<>();
+        lock.readLock().lock();
+        ingestLock.lock();
+        try {
+            long firstId = nextId.getAndAdd(files.size());
+            for (int i = 0; i < files.size(); ++i) {
+                ingested.add(new SafeSSTable(ingestFile(files.get(i), stagedFiles.get(i), firstId + i)));
+            }
+            if (checkOverlap) {
+                checkNoOverlap(ingested);
+            }
+
+            safeSSTables.addAll(ingested);
+            return ingested.stream().map(safeSSTable -> safeSSTable.ssTable().getId()).toList();
+        } catch (IOException | RuntimeException e) {
+            for (SafeSSTable safeSSTable : ingested) {
+                safeSSTable.ssTable().close();
+                long id = safeSSTable.ssTable().getId();
+                Path directory = safeSSTable.ssTable().getDirectory();
+                Files.deleteIfExists(FileUtils.makePath(directory, Long.toString(id), DATA_FILE_EXT));
+            }
+            throw e;
+        } finally {
+            ingestLock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Links or copies the file under a temporary name into the directory chosen by the tiering policy.
+     * Temporary files left by a crash are removed at start.
+     */
+    private Path stageFile(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        Path directory = tieringPolicy != null && tieringPolicy.isCold(Files.size(file), now, now)
+                ? tieringPolicy.coldPath()
+                : path;
+        Path stagedFile = FileUtils.makePath(directory, "ingest-" + UUID.randomUUID(), FileUtils.TMP_FILE_EXT);
+        FileUtils.linkOrCopy(file, stagedFile);
+        return stagedFile;
+    }
+
+    private SSTable ingestFile(Path file, Path stagedFile, long id) throws IOException {
+        Path directory = stagedFile.getParent();
+        Path target = FileUtils.makePath(directory, Long.toString(id), DATA_FILE_EXT);
+        Files.move(stagedFile, target, StandardCopyOption.ATOMIC_MOVE);
+
+        try {
+            return openSSTable(directory, id);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw new IOException("File %s isn't valid SSTable".formatted(file), e);
+        }
+    }
+
+    private void checkNoOverlap(List<SafeSSTable> ingested) {
+        List<KeySpan> spans = new ArrayList<>();
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            if (!safeSSTable.isDeleted()) {
+                spans.add(KeySpan.of(safeSSTable));
+            }
+        }
+        spans.addAll(ingested.stream().map(KeySpan::of).toList());
+        spans.removeIf(span -> !span.hasRecords() && span.safeSSTable().ssTable().rangeTombstones().isEmpty());
+
+        for (int i = 0; i < spans.size(); ++i) {
+            KeySpan span = spans.get(i);
+            if (!ingested.contains(span.safeSSTable())) {
+                continue;
+            }
+            for (int j = 0; j < spans.size(); ++j) {
+                KeySpan other = spans.get(j);
+                boolean overlap = KeySpan.intersect(span.from(), other.to())
+                        && KeySpan.intersect(other.from(), span.to());
+                if (i != j && overlap) {
+                    throw new IllegalArgumentException(
+                            "Ingested SSTable[id=%d] overlaps SSTable[id=%d]".formatted(
+                                    span.safeSSTable().ssTable().getId(),
+                                    other.safeSSTable().ssTable().getId()
+                            )
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Compacted SSTables are read through once, so they don't need readahead for random reads.
+     */
+    private void adviseSequential(long toId) {
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            if (safeSSTable.ssTable().getId() >= toId) {
+                break;
+            }
+            safeSSTable.ssTable().adviseSequential();
+        }
+    }
+
+    /**
+     * Removes value log files which aren't referenced by alive SSTables.
+     * Entries of removed SSTables are shadowed by the compacted one, so their values are never read.
+     */
+    private void collectValueLogGarbage() {
+        lock.writeLock().lock();
+        try {
+            valueLog.removeUnused(collectUsedValueLogFileIds());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns count of bytes referenced by entries which survive compaction of SSTables with id less than toId
+     * per value log file id. Values themselves aren't read.
+     */
+    private Map<Long, Long> collectLiveValueLogUsage(long toId) {
+        Map<Long, Long> usedBytes = new HashMap<>();
+        try (FutureIterator<Entry<MemorySegment>> iterator = loadUntil(null, null, id -> id < toId)) {
+            while (iterator.hasNext()) {
+                if (iterator.next() instanceof ValueLogEntry valueLogEntry) {
+                    usedBytes.merge(valueLogEntry.pointer().fileId(), valueLogEntry.pointer().size(), Long::sum);
+                }
+            }
+        }
+        return usedBytes;
+    }
+
+    private Set<Long> collectUsedValueLogFileIds() {
+        Set<Long> usedFileIds = new HashSet<>();
+        for (SafeSSTable safeSSTable : safeSSTables) {
+            safeSSTable.forEachValuePointer(pointer -> usedFileIds.add(pointer.fileId()));
+        }
+        return usedFileIds;
     }
 
     private void deleteSSTable(SafeSSTable safeSSTable) {
         deleteTask = deleteWorker.submit(() -> {
             try {
                 safeSSTables.remove(safeSSTable);
-                safeSSTable.delete(path);
+                safeSSTable.delete(safeSSTable.ssTable().getDirectory());
             } catch (Exception e) {
                 log.log(
                         Level.WARNING,
@@ -157,8 +1177,13 @@ public class SSTableManager {
     }
 
     public void close() throws IOException {
+        if (migrationScheduler != null) {
+            migrationScheduler.close();
+        }
         try {
+            ready.exceptionally(e -> null).get();
             compactionTask.get();
+            migrationTask.get();
             deleteTask.get();
         } catch (ExecutionException e) {
             if (e.getCause() instanceof IOException ioEx) {
@@ -169,39 +1194,118 @@ public class SSTableManager {
         } finally {
             compactWorker.close();
             deleteWorker.close();
+            prefetcher.close();
+            for (SafeSSTable safeSSTable : safeSSTables) {
+                safeSSTable.ssTable().close();
+            }
         }
     }
 
-    private FutureIterator<Entry<MemorySegment>> loadUntil(long toId) {
-        List<FutureIterator<Entry<MemorySegment>>> loadedIterators = load(null, null, toId);
+    private FutureIterator<Entry<MemorySegment>> loadUntil(
+            MemorySegment from,
+            MemorySegment to,
+            LongPredicate loadedIds
+    ) {
+        List<FutureIterator<Entry<MemorySegment>>> loadedIterators = load(
+                from,
+                to,
+                loadedIds,
+                false,
+                RangeTombstones.empty(),
+                null
+        );
 
         int priority = loadedIterators.size();
-        List<PriorityIterator<Entry<MemorySegment>>> priorityIterators = new ArrayList<>();
+        List<AbbreviatedKeyIterator> priorityIterators = new ArrayList<>();
         for (FutureIterator<Entry<MemorySegment>> it : loadedIterators) {
-            priorityIterators.add(new PriorityIterator<>(it, priority--));
+            priorityIterators.add(new AbbreviatedKeyIterator(it, priority--));
         }
 
         GatheringIterator<Entry<MemorySegment>> gatheringIterator = new GatheringIterator<>(
                 priorityIterators,
-                Comparator.comparing(
-                        (PriorityIterator<Entry<MemorySegment>> it) -> it.showNext().key(),
-                        MemorySegmentUtils::compareMemorySegments
-                ).thenComparingInt(PriorityIterator::getPriority),
-                Comparator.comparing(Entry::key, MemorySegmentUtils::compareMemorySegments)
+                AbbreviatedKeyIterator.comparator(keyComparator).thenComparingInt(PriorityIterator::getPriority),
+                Comparator.comparing(Entry::key, keyComparator)
         );
 
         return new EntrySkipNullsIterator(gatheringIterator);
     }
 
+    /**
+     * Starts opening of SSTables from the newest to the oldest one in parallel.
+     * Opened SSTables are registered in the same order, so registered ones are always the newest SSTables.
+     * Unused value log files are removed when all SSTables are opened.
+     * @return the next id of SSTable
+     */
     private long loadSStables() throws IOException {
-        Files.walkFileTree(path, Set.of(), 1, new SimpleFileVisitor<>() {
+        Map<Long, Path> directories = new HashMap<>();
+        findSSTables(path, directories);
+        if (tieringPolicy != null) {
+            findSSTables(tieringPolicy.coldPath(), directories);
+        }
+        List<Long> ids = new ArrayList<>(directories.keySet());
+        ids.sort(Comparator.reverseOrder());
+
+        SafeSSTable[] opened = new SafeSSTable[ids.size()];
+        int[] countRegistered = {0};
+        ExecutorService openingWorkers = Executors.newFixedThreadPool(OPENING_THREADS);
+        List<CompletableFuture<Void>> openings = new ArrayList<>();
+        for (int i = 0; i < ids.size(); ++i) {
+            int index = i;
+            openings.add(CompletableFuture.runAsync(() -> {
+                SafeSSTable safeSSTable;
+                try {
+                    long id = ids.get(index);
+                    safeSSTable = new SafeSSTable(openSSTable(directories.get(id), id));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                synchronized (opened) {
+                    opened[index] = safeSSTable;
+                    while (countRegistered[0] < opened.length && opened[countRegistered[0]] != null) {
+                        safeSSTables.add(opened[countRegistered[0]++]);
+                    }
+                }
+            }, openingWorkers));
+        }
+        openingWorkers.shutdown();
+
+        CompletableFuture.allOf(openings.toArray(CompletableFuture[]::new)).whenComplete((ignored, e) -> {
+            if (e != null) {
+                Throwable cause = e.getCause() instanceof UncheckedIOException ioEx ? ioEx.getCause() : e.getCause();
+                log.log(Level.WARNING, "Opening of SSTables was failed", cause);
+                ready.completeExceptionally(cause);
+                return;
+            }
+            collectValueLogGarbage();
+            ready.complete(null);
+        });
+
+        return ids.isEmpty() ? 0 : ids.getFirst() + 1;
+    }
+
+    /**
+     * Collects ids of SSTables in the directory and removes unknown files, e.g. temporary ones.
+     * If the process stopped during migration, the hot file of a table which is complete in the cold directory
+     * is removed, so the cold directory must be searched after the hot one.
+     */
+    private void findSSTables(Path directory, Map<Long, Path> directories) throws IOException {
+        Files.walkFileTree(directory, Set.of(), 1, new SimpleFileVisitor<>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isDirectory()) {
+                    return FileVisitResult.CONTINUE;
+                }
                 if (FileUtils.hasExtension(file, DATA_FILE_EXT) && NumberUtils.isInteger(
                         FileUtils.extractFileName(file, DATA_FILE_EXT)
                 )) {
                     long id = Long.parseLong(FileUtils.extractFileName(file, DATA_FILE_EXT));
-                    safeSSTables.add(new SafeSSTable(new SSTable(path, id, arena)));
+                    Path prevDirectory = directories.put(id, directory);
+                    if (prevDirectory != null) {
+                        Files.deleteIfExists(FileUtils.makePath(prevDirectory, Long.toString(id), DATA_FILE_EXT));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                if (FileUtils.hasExtension(file, VALUE_LOG_FILE_EXT) && directory.equals(path)) {
                     return FileVisitResult.CONTINUE;
                 }
 
@@ -209,12 +1313,166 @@ public class SSTableManager {
                 return FileVisitResult.CONTINUE;
             }
         });
+    }
 
-        long maxId = -1;
-        for (SafeSSTable safeSSTable : safeSSTables) {
-            maxId = Math.max(maxId, safeSSTable.ssTable().getId());
+    private record CompactionIds(long firstId, int count) {
+    }
+
+    /**
+     * Entries of one compaction output from its first key. {@link SSTable#save} traverses them twice.
+     * The first traversal stops when the output reaches the target size or passes a moved SSTable
+     * and remembers the first key of the next output, the second one stops at that key.
+     * So outputs are split by the pass which writes them without a separate pass over compacted SSTables.
+     */
+    private final class CompactionOutput implements Iterable<Entry<MemorySegment>> {
+        private final MemorySegment from;
+        private final LongPredicate compactedIds;
+        private final List<MemorySegment> movedMaxKeys;
+        private final Set<Long> relocatedValueLogFileIds;
+        private final boolean last;
+        private final List<FutureIterator<Entry<MemorySegment>>> openedIterators = new ArrayList<>();
+        private int movedIndex;
+        private boolean sized;
+        // Null until the first traversal stops before the end of compacted entries
+        private MemorySegment nextFrom;
+
+        CompactionOutput(
+                MemorySegment from,
+                LongPredicate compactedIds,
+                List<MemorySegment> movedMaxKeys,
+                int movedIndex,
+                Set<Long> relocatedValueLogFileIds,
+                boolean last
+        ) {
+            this.from = from;
+            this.compactedIds = compactedIds;
+            this.movedMaxKeys = movedMaxKeys;
+            this.movedIndex = movedIndex;
+            this.relocatedValueLogFileIds = relocatedValueLogFileIds;
+            this.last = last;
         }
 
-        return maxId + 1;
+        @Override
+        public Iterator<Entry<MemorySegment>> iterator() {
+            FutureIterator<Entry<MemorySegment>> entries = loadUntil(from, nextFrom, compactedIds);
+            openedIterators.add(entries);
+            if (sized) {
+                return entries;
+            }
+
+            sized = true;
+            return new Iterator<>() {
+                private Entry<MemorySegment> checkedEntry;
+                private long outputBytes;
+
+                @Override
+                public boolean hasNext() {
+                    if (nextFrom != null || !entries.hasNext()) {
+                        return false;
+                    }
+
+                    Entry<MemorySegment> next = entries.showNext();
+                    if (next != checkedEntry) {
+                        checkedEntry = next;
+                        if (isOutputEnd(next.key(), outputBytes)) {
+                            nextFrom = next.key();
+                            entries.close();
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public Entry<MemorySegment> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    Entry<MemorySegment> entry = entries.next();
+                    outputBytes += Long.BYTES + SSTable.recordBytes(entry, valueLog, relocatedValueLogFileIds);
+                    return entry;
+                }
+            };
+        }
+
+        /**
+         * Checks whether the key starts the next output. Outputs are split between keys around every moved SSTable,
+         * so they don't overlap it in next compactions.
+         */
+        private boolean isOutputEnd(MemorySegment key, long outputBytes) {
+            boolean passedMoved = false;
+            while (movedIndex < movedMaxKeys.size()
+                    && MemorySegmentUtils.compareMemorySegments(key, movedMaxKeys.get(movedIndex)) > 0) {
+                passedMoved = true;
+                ++movedIndex;
+            }
+            boolean full = compactionTargetFileBytes > 0 && outputBytes >= compactionTargetFileBytes;
+            return (full || passedMoved && outputBytes > 0) && !last;
+        }
+
+        void close() {
+            openedIterators.forEach(FutureIterator::close);
+        }
+    }
+
+    /**
+     * Closed range of keys covered by SSTable's records and range tombstones, null bounds are unbounded.
+     */
+    private record KeySpan(SafeSSTable safeSSTable, MemorySegment from, MemorySegment to, boolean hasRecords) {
+        static KeySpan of(SafeSSTable safeSSTable) {
+            SSTable ssTable = safeSSTable.ssTable();
+            MemorySegment from = ssTable.minKey();
+            MemorySegment to = ssTable.maxKey();
+            boolean hasRecords = from != null;
+            boolean unboundedFrom = false;
+            boolean unboundedTo = false;
+            for (RangeTombstone range : ssTable.rangeTombstones().ranges()) {
+                unboundedFrom |= range.from() == null;
+                unboundedTo |= range.to() == null;
+                if (range.from() != null && (from == null || compareBounds(range.from(), from, true) < 0)) {
+                    from = range.from();
+                }
+                if (range.to() != null && (to == null || compareBounds(range.to(), to, false) > 0)) {
+                    to = range.to();
+                }
+            }
+            return new KeySpan(safeSSTable, unboundedFrom ? null : from, unboundedTo ? null : to, hasRecords);
+        }
+
+        /**
+         * Compares bounds where null is the least bound if it's a lower one and the greatest one otherwise.
+         */
+        static int compareBounds(MemorySegment a, MemorySegment b, boolean lower) {
+            if (a == null || b == null) {
+                int nullOrder = lower ? -1 : 1;
+                return a == b ? 0 : (a == null ? nullOrder : -nullOrder);
+            }
+            return MemorySegmentUtils.compareMemorySegments(a, b);
+        }
+
+        /**
+         * Checks whether a span starting at the lower bound intersects a span ending at the upper bound
+         * which starts before.
+         */
+        static boolean intersect(MemorySegment from, MemorySegment to) {
+            return from == null || to == null || MemorySegmentUtils.compareMemorySegments(from, to) <= 0;
+        }
+
+        boolean overlaps(KeySpan other) {
+            return intersect(other.from, to) && intersect(from, other.to);
+        }
+
+        /**
+         * Returns the span covering both spans, it doesn't refer to SSTable.
+         */
+        KeySpan union(KeySpan other) {
+            return new KeySpan(
+                    null,
+                    compareBounds(from, other.from, true) <= 0 ? from : other.from,
+                    compareBounds(to, other.to, false) >= 0 ? to : other.to,
+                    hasRecords || other.hasRecords
+            );
+        }
     }
 }
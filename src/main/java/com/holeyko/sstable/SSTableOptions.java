@@ -0,0 +1,34 @@
+package com.holeyko.sstable;
+
+import com.holeyko.dao.Config;
+import com.holeyko.filter.PrefixExtractor;
+
+/**
+ * Optional sections of written SSTables.
+ * @param prefixExtractor extractor of prefixes for prefix Bloom filter, null if filter isn't needed
+ * @param hashIndex whether to build the hash index for point lookups
+ * @param learnedIndex whether to build the learned index for key search, it isn't saved if keys don't fit it
+ * @param fixedKeyBytes size of keys which aren't stored in records if all keys have it, 0 means sizes are stored
+ * @param abbreviatedKeyIndex whether to store first 8 bytes of every key as a number for binary search
+ */
+public record SSTableOptions(
+        PrefixExtractor prefixExtractor,
+        boolean hashIndex,
+        boolean learnedIndex,
+        int fixedKeyBytes,
+        boolean abbreviatedKeyIndex
+) {
+    public static SSTableOptions none() {
+        return new SSTableOptions(null, false, false, 0, false);
+    }
+
+    public static SSTableOptions of(Config config) {
+        return new SSTableOptions(
+                config.prefixExtractor(),
+                config.hashIndex(),
+                config.learnedIndex(),
+                config.fixedKeyBytes(),
+                config.abbreviatedKeyIndex()
+        );
+    }
+}
@@ -0,0 +1,168 @@
+package com.holeyko.sstable;
+
+import com.holeyko.entry.Entry;
+import com.holeyko.vlog.ValueLogEntry;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Statistics of SSTable collected while it's saved.
+ * Stored in the memory segment: counters, sizes of min and max keys and the keys.
+ * @param countEntries count of records including tombstones
+ * @param countTombstones count of records with removed values
+ * @param countRangeTombstones count of range tombstones
+ * @param countValuePointers count of records which values are stored in the value log
+ * @param rawKeyBytes total size of keys
+ * @param rawValueBytes total size of values including values stored in the value log
+ * @param minKey the least key or null if there are no records
+ * @param maxKey the greatest key or null if there are no records
+ * @param createdAtMillis time of saving
+ * @param minExpiresAt the least expiration time of records, {@link Entry#NEVER_EXPIRES} if no record expires
+ */
+public record SSTableProperties(
+        long countEntries,
+        long countTombstones,
+        long countRangeTombstones,
+        long countValuePointers,
+        long rawKeyBytes,
+        long rawValueBytes,
+        MemorySegment minKey,
+        MemorySegment maxKey,
+        long createdAtMillis,
+        long minExpiresAt
+) {
+    private static final int HEADER_BYTES = 10 * Long.BYTES;
+    private static final long NULL_KEY_SIZE = -1;
+
+    /**
+     * Returns share of tombstones among records and range tombstones, 0 for an empty table.
+     */
+    public double tombstoneRatio() {
+        long count = countEntries + countRangeTombstones;
+        return count == 0 ? 0 : (double) (countTombstones + countRangeTombstones) / count;
+    }
+
+    public MemorySegment toSegment() {
+        long size = HEADER_BYTES + keySize(minKey) + keySize(maxKey);
+        MemorySegment segment = MemorySegment.ofArray(new byte[(int) size]);
+        long offset = 0;
+        long[] header = {
+                countEntries,
+                countTombstones,
+                countRangeTombstones,
+                countValuePointers,
+                rawKeyBytes,
+                rawValueBytes,
+                createdAtMillis,
+                minExpiresAt,
+                minKey == null ? NULL_KEY_SIZE : minKey.byteSize(),
+                maxKey == null ? NULL_KEY_SIZE : maxKey.byteSize()
+        };
+        for (long value : header) {
+            segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+            offset += Long.BYTES;
+        }
+        for (MemorySegment key : new MemorySegment[] {minKey, maxKey}) {
+            if (key != null) {
+                MemorySegment.copy(key, 0, segment, offset, key.byteSize());
+                offset += key.byteSize();
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Reads properties from the section, keys are copied to the heap.
+     */
+    public static SSTableProperties fromSegment(MemorySegment segment) {
+        long[] header = new long[HEADER_BYTES / Long.BYTES];
+        for (int i = 0; i < header.length; ++i) {
+            header[i] = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, (long) i * Long.BYTES);
+        }
+        MemorySegment minKey = readKey(segment, HEADER_BYTES, header[8]);
+        MemorySegment maxKey = readKey(segment, HEADER_BYTES + keySize(minKey), header[9]);
+        return new SSTableProperties(
+                header[0],
+                header[1],
+                header[2],
+                header[3],
+                header[4],
+                header[5],
+                minKey,
+                maxKey,
+                header[6],
+                header[7]
+        );
+    }
+
+    private static MemorySegment readKey(MemorySegment segment, long offset, long size) {
+        if (size == NULL_KEY_SIZE) {
+            return null;
+        }
+        return MemorySegment.ofArray(segment.asSlice(offset, size).toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    private static long keySize(MemorySegment key) {
+        return key == null ? 0 : key.byteSize();
+    }
+
+    public static Builder builder(long countRangeTombstones) {
+        return new Builder(countRangeTombstones);
+    }
+
+    /**
+     * Collects properties of entries which are added in ascending order of keys.
+     */
+    public static final class Builder {
+        private final long countRangeTombstones;
+        private long countEntries;
+        private long countTombstones;
+        private long countValuePointers;
+        private long rawKeyBytes;
+        private long rawValueBytes;
+        private MemorySegment minKey;
+        private MemorySegment maxKey;
+        private long minExpiresAt = Entry.NEVER_EXPIRES;
+
+        private Builder(long countRangeTombstones) {
+            this.countRangeTombstones = countRangeTombstones;
+        }
+
+        public void add(Entry<MemorySegment> entry, boolean valuePointer) {
+            ++countEntries;
+            if (minKey == null) {
+                minKey = entry.key();
+            }
+            maxKey = entry.key();
+            rawKeyBytes += entry.key().byteSize();
+            // Values of the value log aren't read, their size is known from pointers
+            if (entry instanceof ValueLogEntry valueLogEntry) {
+                rawValueBytes += valueLogEntry.pointer().size();
+            } else if (entry.value() == null) {
+                ++countTombstones;
+            } else {
+                rawValueBytes += entry.value().byteSize();
+            }
+            if (valuePointer) {
+                ++countValuePointers;
+            }
+            minExpiresAt = Math.min(minExpiresAt, entry.expiresAt());
+        }
+
+        public SSTableProperties build(long createdAtMillis) {
+            return new SSTableProperties(
+                    countEntries,
+                    countTombstones,
+                    countRangeTombstones,
+                    countValuePointers,
+                    rawKeyBytes,
+                    rawValueBytes,
+                    minKey,
+                    maxKey,
+                    createdAtMillis,
+                    minExpiresAt
+            );
+        }
+    }
+}
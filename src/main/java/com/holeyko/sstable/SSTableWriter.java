@@ -0,0 +1,207 @@
+package com.holeyko.sstable;
+
+import com.holeyko.entry.Entry;
+import com.holeyko.utils.FileUtils;
+import com.holeyko.utils.MemorySegmentUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Builds SSTable file from entries which are added in ascending order of keys in one pass,
+ * e.g. to ingest pre-sorted data by {@link SSTableManager#ingest}. Values are written inline.
+ * Records and their offsets are streamed into temporary files, which are assembled into the SSTable
+ * by {@link #finish()}. The file appears atomically, closing of unfinished writer removes temporary files.
+ * The writer isn't thread-safe.
+ */
+public class SSTableWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final String RECORDS_FILE_EXT = "records.tmp";
+    private static final String OFFSETS_FILE_EXT = "offsets.tmp";
+    private static final ValueLayout.OfLong STORED_OFFSET = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(
+            ByteOrder.BIG_ENDIAN
+    );
+
+    private final Path file;
+    private final Path recordsFile;
+    private final Path offsetsFile;
+    private final Path tmpFile;
+    private final SSTableOptions options;
+    private final BufferedOutputStream records;
+    private final DataOutputStream offsets;
+    private final SSTableIndexBuilder.PrefixCounter prefixCounter;
+    private final SSTableProperties.Builder propertiesBuilder = SSTableProperties.builder(0);
+    private byte[] recordBuffer = new byte[256];
+    private MemorySegment prevKey;
+    private long recordsBytes;
+    private int countRecords;
+    private boolean finished;
+
+    public SSTableWriter(Path file) throws IOException {
+        this(file, SSTableOptions.none());
+    }
+
+    /**
+     * @param options optional sections to build, they should match Config of Dao which ingests the file
+     */
+    public SSTableWriter(Path file, SSTableOptions options) throws IOException {
+        this.file = file;
+        this.recordsFile = siblingFile(file, RECORDS_FILE_EXT);
+        this.offsetsFile = siblingFile(file, OFFSETS_FILE_EXT);
+        this.tmpFile = siblingFile(file, FileUtils.TMP_FILE_EXT);
+        this.options = options;
+        this.prefixCounter = new SSTableIndexBuilder.PrefixCounter(options.prefixExtractor());
+        this.records = new BufferedOutputStream(
+                Files.newOutputStream(recordsFile, CREATE, WRITE, TRUNCATE_EXISTING),
+                BUFFER_BYTES
+        );
+        this.offsets = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(offsetsFile, CREATE, WRITE, TRUNCATE_EXISTING),
+                BUFFER_BYTES
+        ));
+    }
+
+    /**
+     * Appends the entry, null value is a tombstone which hides the key in older SSTables.
+     * @throws IllegalArgumentException if the key isn't greater than the previous one
+     *                                  or doesn't have the fixed size of keys
+     */
+    public void add(Entry<MemorySegment> entry) throws IOException {
+        MemorySegment key = entry.key();
+        if (prevKey != null && MemorySegmentUtils.compareMemorySegments(prevKey, key) >= 0) {
+            throw new IllegalArgumentException("Keys must be added in ascending order without duplicates");
+        }
+        if (options.fixedKeyBytes() != 0 && key.byteSize() != options.fixedKeyBytes()) {
+            throw new IllegalArgumentException("Key must have %d bytes".formatted(options.fixedKeyBytes()));
+        }
+        if (countRecords == Integer.MAX_VALUE) {
+            throw new IllegalStateException("SSTable can't have more than %d records".formatted(countRecords));
+        }
+
+        boolean fixedKey = options.fixedKeyBytes() != 0;
+        long recordBytes = SSTable.recordBytes(entry, false, fixedKey);
+        if (recordBuffer.length < recordBytes) {
+            recordBuffer = new byte[Math.toIntExact(Math.max(recordBytes, 2L * recordBuffer.length))];
+        }
+        SSTable.writeRecord(entry, null, fixedKey, MemorySegment.ofArray(recordBuffer), 0);
+        records.write(recordBuffer, 0, (int) recordBytes);
+        offsets.writeLong(recordsBytes);
+
+        // The previous key is copied, because the caller can reuse memory of keys
+        prevKey = MemorySegment.ofArray(key.toArray(ValueLayout.JAVA_BYTE));
+        prefixCounter.add(prevKey);
+        propertiesBuilder.add(entry, false);
+        recordsBytes += recordBytes;
+        ++countRecords;
+    }
+
+    /**
+     * Returns count of added entries.
+     */
+    public int size() {
+        return countRecords;
+    }
+
+    /**
+     * Writes offsets, records and sections into the SSTable file and removes temporary files.
+     * Search sections are built by keys read back from the records.
+     */
+    public void finish() throws IOException {
+        records.close();
+        offsets.close();
+
+        long offsetsBytes = (long) countRecords * Long.BYTES;
+        try (
+                Arena arena = Arena.ofConfined();
+                FileChannel recordsChannel = FileChannel.open(recordsFile, READ);
+                FileChannel offsetsChannel = FileChannel.open(offsetsFile, READ);
+                FileChannel channel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)
+        ) {
+            MemorySegment recordsSegment = recordsChannel.map(MapMode.READ_ONLY, 0, recordsBytes, arena);
+            MemorySegment offsetsSegment = offsetsChannel.map(MapMode.READ_ONLY, 0, offsetsBytes, arena);
+            SSTableIndexBuilder indexBuilder = new SSTableIndexBuilder(options, countRecords, prefixCounter.count());
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.nativeOrder());
+            long position = 0;
+            for (int i = 0; i < countRecords; ++i) {
+                long recordOffset = offsetsSegment.get(STORED_OFFSET, (long) i * Long.BYTES);
+                indexBuilder.add(SSTable.recordKey(recordsSegment, recordOffset, options.fixedKeyBytes()), i);
+                buffer.putLong(offsetsBytes + recordOffset);
+                if (!buffer.hasRemaining()) {
+                    position = writeFully(channel, buffer.flip(), position);
+                    buffer.clear();
+                }
+            }
+            position = writeFully(channel, buffer.flip(), position);
+
+            long transferred = 0;
+            while (transferred < recordsBytes) {
+                transferred += channel.transferFrom(recordsChannel, position + transferred, recordsBytes - transferred);
+            }
+            position += recordsBytes;
+
+            Map<Integer, MemorySegment> sections = new HashMap<>();
+            indexBuilder.putSections(sections);
+            if (options.fixedKeyBytes() != 0) {
+                sections.put(SSTableFooter.KEY_FORMAT_SECTION, SSTable.keyFormatSection(options.fixedKeyBytes()));
+            }
+            sections.put(
+                    SSTableFooter.PROPERTIES_SECTION,
+                    propertiesBuilder.build(System.currentTimeMillis()).toSegment()
+            );
+            SSTableFooter.write(channel, position, countRecords, sections);
+            channel.force(true);
+        }
+
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        finished = true;
+        deleteTemporaryFiles();
+    }
+
+    private static Path siblingFile(Path file, String extension) {
+        return FileUtils.makePath(file.toAbsolutePath().getParent(), file.getFileName().toString(), extension);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long curPosition = position;
+        while (buffer.hasRemaining()) {
+            curPosition += channel.write(buffer, curPosition);
+        }
+        return curPosition;
+    }
+
+    private void deleteTemporaryFiles() throws IOException {
+        Files.deleteIfExists(recordsFile);
+        Files.deleteIfExists(offsetsFile);
+        Files.deleteIfExists(tmpFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        records.close();
+        offsets.close();
+        deleteTemporaryFiles();
+    }
+}
@@ -5,19 +5,24 @@ import com.holeyko.iterators.FutureIterator;
 import com.holeyko.iterators.LazyIterator;
 import com.holeyko.utils.FileUtils;
 import com.holeyko.utils.IteratorUtils;
+import com.holeyko.vlog.ValuePointer;
 
 import java.io.IOException;
 import java.lang.foreign.MemorySegment;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static com.holeyko.utils.FileUtils.DATA_FILE_EXT;
 import static com.holeyko.utils.FileUtils.DELETED_FILE_EXT;
 
 public class SafeSSTable {
-    private boolean deleted;
+    private volatile boolean deleted;
     private final SSTable ssTable;
     private final AtomicInteger countAliveRef = new AtomicInteger();
 
@@ -34,6 +39,10 @@ public class SafeSSTable {
         this.deleted = true;
     }
 
+    public boolean isDeleted() {
+        return deleted;
+    }
+
     public Entry<MemorySegment> findEntry(MemorySegment key) {
         if (deleted || incrementRef()) {
             return null;
@@ -44,28 +53,114 @@ public class SafeSSTable {
         return result;
     }
 
+    public List<Entry<MemorySegment>> findEntries(List<MemorySegment> sortedKeys) {
+        if (deleted || incrementRef()) {
+            return null;
+        }
+
+        List<Entry<MemorySegment>> result = ssTable.findEntries(sortedKeys);
+        decrementRef();
+        return result;
+    }
+
     public FutureIterator<Entry<MemorySegment>> findEntries(MemorySegment from, MemorySegment to) {
+        return findEntries(from, to, false);
+    }
+
+    public FutureIterator<Entry<MemorySegment>> findEntries(
+            MemorySegment from,
+            MemorySegment to,
+            boolean descending
+    ) {
         if (deleted || incrementRef()) {
             return IteratorUtils.emptyFutureIterator();
         }
 
-        FutureIterator<Entry<MemorySegment>> iterator = ssTable.findEntries(from, to);
+        FutureIterator<Entry<MemorySegment>> iterator = ssTable.findEntries(from, to, descending);
         if (!iterator.hasNext()) {
+            decrementRef();
             return iterator;
         }
 
+        // The reference is released once, when the iterator is exhausted or closed
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                decrementRef();
+            }
+        };
         return new LazyIterator<>(
                 () -> {
                     Entry<MemorySegment> next = iterator.next();
                     if (!iterator.hasNext()) {
-                        decrementRef();
+                        release.run();
                     }
                     return next;
                 },
-                iterator::hasNext
+                iterator::hasNext,
+                release
         );
     }
 
+    public void forEachValuePointer(Consumer<ValuePointer> action) {
+        if (deleted || incrementRef()) {
+            return;
+        }
+
+        try {
+            ssTable.forEachValuePointer(action);
+        } finally {
+            decrementRef();
+        }
+    }
+
+    public int countEntries(MemorySegment from, MemorySegment to) {
+        if (deleted || incrementRef()) {
+            return 0;
+        }
+
+        int result = ssTable.countEntries(from, to);
+        decrementRef();
+        return result;
+    }
+
+    public MemorySegment findMiddleKey(MemorySegment from, MemorySegment to) {
+        if (deleted || incrementRef()) {
+            return null;
+        }
+
+        MemorySegment result = ssTable.findMiddleKey(from, to);
+        decrementRef();
+        return result;
+    }
+
+    /**
+     * Keeps the table's file from being removed until {@link #unpin()}.
+     * @return false if the table is deleted, so it can't be pinned
+     */
+    public boolean pin() {
+        return !deleted && !incrementRef();
+    }
+
+    public void unpin() {
+        decrementRef();
+    }
+
+    /**
+     * Creates hard link of the pinned table's file in the target directory or copies the file
+     * if the directories are on different file systems.
+     * The file can be already renamed for deletion, but it's removed only after the table is unpinned.
+     */
+    public void link(Path path, Path target) throws IOException {
+        String fileName = Long.toString(ssTable.getId());
+        Path link = FileUtils.makePath(target, fileName, DATA_FILE_EXT);
+        try {
+            FileUtils.linkOrCopy(FileUtils.makePath(path, fileName, DATA_FILE_EXT), link);
+        } catch (NoSuchFileException e) {
+            FileUtils.linkOrCopy(FileUtils.makePath(path, fileName, DELETED_FILE_EXT), link);
+        }
+    }
+
     public void delete(Path path) throws IOException {
         countAliveRef.getAndUpdate(x -> -(x + 1));
         Path dataFile = FileUtils.makePath(path, Long.toString(ssTable.getId()), DATA_FILE_EXT);
@@ -78,6 +173,7 @@ public class SafeSSTable {
                     countAliveRef.wait();
                 }
                 Files.deleteIfExists(deletedFile);
+                ssTable.close();
             } catch (InterruptedException ignored) {
                 Thread.currentThread().interrupt();
             }
@@ -0,0 +1,55 @@
+package com.holeyko.sstable;
+
+/**
+ * Follows sequential reading of a region of SSTable's file and keeps chunks ahead of it requested
+ * from prefetcher. Regions shorter than {@link #MIN_REGION_BYTES} are left to the kernel.
+ */
+public class ScanReadahead {
+    private static final long MIN_REGION_BYTES = 64 * 1024;
+    private static final long AHEAD_BYTES = 2 * Prefetcher.CHUNK_BYTES;
+
+    private final Prefetcher prefetcher;
+    private final SSTableData data;
+    private final long regionFrom;
+    private final long regionTo;
+    private final boolean descending;
+    private long requestedBorder;
+
+    public ScanReadahead(
+            Prefetcher prefetcher,
+            SSTableData data,
+            long regionFrom,
+            long regionTo,
+            boolean descending
+    ) {
+        this.prefetcher = prefetcher;
+        this.data = data;
+        this.regionFrom = regionFrom;
+        this.regionTo = regionTo;
+        this.descending = descending;
+        if (regionTo - regionFrom < MIN_REGION_BYTES) {
+            this.requestedBorder = descending ? regionFrom : regionTo;
+        } else {
+            this.requestedBorder = descending ? regionTo : regionFrom;
+        }
+    }
+
+    /**
+     * Is called with offset which is being read.
+     */
+    public void advance(long offset) {
+        if (descending) {
+            while (requestedBorder > regionFrom && requestedBorder > offset - AHEAD_BYTES) {
+                long chunkFrom = Math.max(regionFrom, requestedBorder - Prefetcher.CHUNK_BYTES);
+                prefetcher.prefetch(data, chunkFrom, requestedBorder - chunkFrom);
+                requestedBorder = chunkFrom;
+            }
+        } else {
+            while (requestedBorder < regionTo && requestedBorder < offset + AHEAD_BYTES) {
+                long chunkTo = Math.min(regionTo, requestedBorder + Prefetcher.CHUNK_BYTES);
+                prefetcher.prefetch(data, requestedBorder, chunkTo - requestedBorder);
+                requestedBorder = chunkTo;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.holeyko.sstable;
+
+import java.nio.file.Path;
+
+/**
+ * Placement of SSTables between the hot directory, which is the base path of the storage, and the cold one.
+ * Flushes always write to the hot directory, value log files stay there too. Hot SSTables which match
+ * a size or age rule migrate to the cold directory in the background.
+ * @param coldPath directory of cold SSTables, it can be on another file system
+ * @param coldCompacted whether compaction writes its outputs, the oldest SSTables, to the cold directory
+ * @param coldMinBytes SSTables of at least this size are cold, 0 disables the rule
+ * @param coldMinAgeMillis SSTables saved at least this time ago are cold, 0 disables the rule
+ */
+public record TieringPolicy(Path coldPath, boolean coldCompacted, long coldMinBytes, long coldMinAgeMillis) {
+    public TieringPolicy {
+        if (coldPath == null) {
+            throw new IllegalArgumentException("Cold path must be set");
+        }
+        if (coldMinBytes < 0 || coldMinAgeMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Thresholds of cold SSTables must be non-negative: %d bytes, %d ms".formatted(
+                            coldMinBytes,
+                            coldMinAgeMillis
+                    )
+            );
+        }
+    }
+
+    public TieringPolicy withColdPath(Path coldPath) {
+        return new TieringPolicy(coldPath, coldCompacted, coldMinBytes, coldMinAgeMillis);
+    }
+
+    /**
+     * Checks whether hot SSTables can become cold after they are saved.
+     */
+    public boolean migrates() {
+        return coldMinBytes > 0 || coldMinAgeMillis > 0;
+    }
+
+    public boolean isCold(long sizeBytes, long createdAtMillis, long nowMillis) {
+        return coldMinBytes > 0 && sizeBytes >= coldMinBytes
+                || coldMinAgeMillis > 0 && nowMillis - createdAtMillis >= coldMinAgeMillis;
+    }
+}
@@ -1,13 +1,18 @@
 package com.holeyko.utils;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 
 public final class FileUtils {
     public static final String DATA_FILE_EXT = "data";
     public static final String TMP_FILE_EXT = "tmp";
     public static final String DELETED_FILE_EXT = "del";
+    public static final String VALUE_LOG_FILE_EXT = "vlog";
     private static final String FILE_EXTENSION_DELIMITER = ".";
 
     public static Path makePath(Path prefix, String name, String extension) {
@@ -25,6 +30,40 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * Deletes the directory with all its content.
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Creates hard link of the source or copies it if the link can't be created,
+     * e.g. because the target is on another file system.
+     * @throws NoSuchFileException if the source doesn't exist
+     */
+    public static void linkOrCopy(Path source, Path link) throws IOException {
+        try {
+            Files.createLink(link, source);
+        } catch (NoSuchFileException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, link);
+        }
+    }
+
     public static boolean hasExtension(Path path, String extension) {
         return path.getFileName().toString().endsWith(FILE_EXTENSION_DELIMITER + extension);
     }
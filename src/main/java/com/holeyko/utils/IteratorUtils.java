@@ -30,6 +30,16 @@ public final class IteratorUtils {
         );
     }
 
+    /**
+     * Closes the iterator if it holds resources, see {@link FutureIterator#close()}.
+     * @param iterator iterator or null
+     */
+    public static void close(Iterator<?> iterator) {
+        if (iterator instanceof FutureIterator<?> closeable) {
+            closeable.close();
+        }
+    }
+
     private IteratorUtils() {
     }
 }
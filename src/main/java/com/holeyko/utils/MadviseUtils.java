@@ -0,0 +1,85 @@
+package com.holeyko.utils;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calls madvise through the native linker. Advice is only a hint, so it's skipped
+ * if madvise isn't available and its failures are ignored.
+ */
+public final class MadviseUtils {
+    private static final Logger log = Logger.getLogger(MadviseUtils.class.getName());
+    private static final MethodHandle MADVISE;
+    private static final long PAGE_SIZE;
+
+    static {
+        MethodHandle madvise = null;
+        long pageSize = 4096;
+        try {
+            Linker linker = Linker.nativeLinker();
+            madvise = linker.defaultLookup().find("madvise")
+                    .map(symbol -> linker.downcallHandle(
+                            symbol,
+                            FunctionDescriptor.of(
+                                    ValueLayout.JAVA_INT,
+                                    ValueLayout.ADDRESS,
+                                    ValueLayout.JAVA_LONG,
+                                    ValueLayout.JAVA_INT
+                            )
+                    ))
+                    .orElse(null);
+            MethodHandle getPageSize = linker.defaultLookup().find("getpagesize")
+                    .map(symbol -> linker.downcallHandle(symbol, FunctionDescriptor.of(ValueLayout.JAVA_INT)))
+                    .orElse(null);
+            if (getPageSize != null) {
+                pageSize = (int) getPageSize.invokeExact();
+            }
+        } catch (Throwable e) {
+            log.log(Level.WARNING, "madvise is unavailable", e);
+            madvise = null;
+        }
+        MADVISE = madvise;
+        PAGE_SIZE = pageSize;
+    }
+
+    public enum Advice {
+        RANDOM(1),
+        SEQUENTIAL(2),
+        WILLNEED(3);
+
+        private final int value;
+
+        Advice(int value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Advises pages of bytes [offset;offset + size) of the native segment.
+     */
+    public static void advise(MemorySegment segment, long offset, long size, Advice advice) {
+        if (MADVISE == null || size <= 0) {
+            return;
+        }
+
+        long address = segment.address() + offset;
+        long alignedAddress = address - address % PAGE_SIZE;
+        try {
+            int ignored = (int) MADVISE.invokeExact(
+                    MemorySegment.ofAddress(alignedAddress),
+                    size + address - alignedAddress,
+                    advice.value
+            );
+        } catch (Throwable e) {
+            log.log(Level.WARNING, "madvise was failed", e);
+        }
+    }
+
+    private MadviseUtils() {
+    }
+}
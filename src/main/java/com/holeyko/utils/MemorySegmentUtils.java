@@ -1,10 +1,83 @@
 package com.holeyko.utils;
 
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
 
 import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
 
 public final class MemorySegmentUtils {
+    private static final ValueLayout.OfLong BIG_ENDIAN_LONG = JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final Comparator<MemorySegment> GENERIC_COMPARATOR = MemorySegmentUtils::compareMemorySegments;
+
+    /**
+     * Returns comparator of keys which orders them as {@link #compareMemorySegments}.
+     * @param fixedKeyBytes size of keys which are compared as big-endian numbers by 8 bytes at once,
+     *                      keys of other sizes and nulls are compared as usual, 0 means any size
+     */
+    public static Comparator<MemorySegment> keyComparator(int fixedKeyBytes) {
+        if (fixedKeyBytes == 0) {
+            return GENERIC_COMPARATOR;
+        }
+        return (left, right) -> left == null || right == null
+                || left.byteSize() != fixedKeyBytes || right.byteSize() != fixedKeyBytes
+                ? compareMemorySegments(left, right)
+                : compareFixedKeys(left, right, fixedKeyBytes);
+    }
+
+    /**
+     * Compares keys of the size as unsigned big-endian numbers, which is the same as comparison of bytes.
+     */
+    public static int compareFixedKeys(MemorySegment left, MemorySegment right, int keyBytes) {
+        for (long offset = 0; offset < keyBytes; offset += Long.BYTES) {
+            long leftNumber = left.get(BIG_ENDIAN_LONG, offset);
+            long rightNumber = right.get(BIG_ENDIAN_LONG, offset);
+            if (leftNumber != rightNumber) {
+                return Long.compareUnsigned(leftNumber, rightNumber);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns first 8 bytes of the key as unsigned big-endian number, shorter keys are padded by zeros.
+     * Abbreviations are ordered as keys, but different keys can have the same abbreviation.
+     */
+    public static long abbreviate(MemorySegment key) {
+        long size = key.byteSize();
+        if (size >= Long.BYTES) {
+            return key.get(BIG_ENDIAN_LONG, 0);
+        }
+
+        long abbreviation = 0;
+        for (long offset = 0; offset < size; ++offset) {
+            abbreviation = (abbreviation << 8) | (key.get(JAVA_BYTE, offset) & 0xff);
+        }
+        return size == 0 ? 0 : abbreviation << (8 * (Long.BYTES - size));
+    }
+
+    /**
+     * Compares keys by their abbreviations and by the comparator only if abbreviations are equal.
+     * Keys of at most 8 bytes with equal abbreviations differ only by trailing zeros, so they are compared by sizes.
+     */
+    public static int compareAbbreviated(
+            long leftAbbreviation,
+            MemorySegment left,
+            long rightAbbreviation,
+            MemorySegment right,
+            Comparator<MemorySegment> keyComparator
+    ) {
+        if (leftAbbreviation != rightAbbreviation) {
+            return Long.compareUnsigned(leftAbbreviation, rightAbbreviation);
+        }
+        if (left.byteSize() <= Long.BYTES && right.byteSize() <= Long.BYTES) {
+            return Long.compare(left.byteSize(), right.byteSize());
+        }
+        return keyComparator.compare(left, right);
+    }
 
     public static int compareMemorySegments(MemorySegment left, MemorySegment right) {
         return compareMemorySegments(
@@ -50,6 +123,49 @@ public final class MemorySegmentUtils {
         );
     }
 
+    /**
+     * Returns 64-bit hash of the segment's bytes.
+     */
+    public static long hash(MemorySegment segment) {
+        long size = segment.byteSize();
+        long hash = 0x9e3779b97f4a7c15L ^ size;
+        long offset = 0;
+        for (; offset + Long.BYTES <= size; offset += Long.BYTES) {
+            hash = mix(hash ^ segment.get(JAVA_LONG_UNALIGNED, offset));
+        }
+
+        long tail = 0;
+        for (; offset < size; ++offset) {
+            tail = (tail << 8) | (segment.get(JAVA_BYTE, offset) & 0xff);
+        }
+        return mix(hash ^ tail);
+    }
+
+    /**
+     * Returns the least segment which is greater than all segments with the prefix
+     * or null if there is no such segment.
+     */
+    public static MemorySegment prefixSuccessor(MemorySegment prefix) {
+        byte[] bytes = prefix.toArray(JAVA_BYTE);
+        for (int i = bytes.length - 1; i >= 0; --i) {
+            if (bytes[i] != (byte) 0xff) {
+                ++bytes[i];
+                return MemorySegment.ofArray(Arrays.copyOf(bytes, i + 1));
+            }
+        }
+        return null;
+    }
+
+    private static long mix(long value) {
+        long result = value;
+        result ^= result >>> 33;
+        result *= 0xff51afd7ed558ccdL;
+        result ^= result >>> 33;
+        result *= 0xc4ceb9fe1a85ec53L;
+        result ^= result >>> 33;
+        return result;
+    }
+
     public static void copyByteArray(byte[] src, MemorySegment dst, long offsetDst) {
         MemorySegment.copy(
                 src,
@@ -0,0 +1,232 @@
+package com.holeyko.vlog;
+
+import com.holeyko.ratelimit.RateLimiter;
+import com.holeyko.utils.FileUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.holeyko.utils.FileUtils.VALUE_LOG_FILE_EXT;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only files with values which are bigger than the separation threshold.
+ * SSTables store only {@link ValuePointer}s to such values.
+ * Every file is written once (by flush or compaction) with id of the SSTable being saved and is immutable after that.
+ */
+public class ValueLog {
+    private static final double GARBAGE_RATIO = 0.5;
+
+    private final Logger log = Logger.getLogger(ValueLog.class.getName());
+
+    private final Path path;
+    private final Arena arena;
+    private final long separationThresholdBytes;
+    private final Map<Long, MemorySegment> files = new ConcurrentHashMap<>();
+    private final Map<Long, MemorySegment> removedFiles = new ConcurrentHashMap<>();
+    // Files which are removed while they are pinned are deleted when the last pin is released
+    private final Object pinLock = new Object();
+    private final List<Path> deferredDeletions = new ArrayList<>();
+    private int countPins;
+
+    public ValueLog(Path path, Arena arena, long separationThresholdBytes) throws IOException {
+        this.path = path;
+        this.arena = arena;
+        this.separationThresholdBytes = separationThresholdBytes;
+        loadFiles();
+    }
+
+    public boolean shouldSeparate(MemorySegment value) {
+        return separationThresholdBytes > 0 && value != null && value.byteSize() >= separationThresholdBytes;
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public MemorySegment read(ValuePointer pointer) {
+        MemorySegment file = files.get(pointer.fileId());
+        if (file == null) {
+            file = removedFiles.get(pointer.fileId());
+        }
+        if (file == null) {
+            throw new IllegalStateException("Value log file doesn't exist [id=%d]".formatted(pointer.fileId()));
+        }
+        return file.asSlice(pointer.offset(), pointer.size());
+    }
+
+    public Writer openWriter(long fileId, RateLimiter.Throttle throttle) {
+        return new Writer(fileId, throttle);
+    }
+
+    /**
+     * Returns files with id less than toId which have less than half of live bytes.
+     * @param usedBytes count of live bytes per file id
+     */
+    public Set<Long> findGarbageFiles(Map<Long, Long> usedBytes, long toId) {
+        Set<Long> garbageFiles = new HashSet<>();
+        for (Map.Entry<Long, MemorySegment> file : files.entrySet()) {
+            long fileId = file.getKey();
+            if (fileId < toId && usedBytes.getOrDefault(fileId, 0L) < file.getValue().byteSize() * GARBAGE_RATIO) {
+                garbageFiles.add(fileId);
+            }
+        }
+        return garbageFiles;
+    }
+
+    /**
+     * Removes files which aren't referenced by any SSTable. Mappings of removed files stay readable
+     * for entries which were loaded before removal, as mappings of removed SSTables do.
+     * Must not be called concurrently with saving of SSTables.
+     */
+    public void removeUnused(Set<Long> usedFileIds) {
+        for (Long fileId : Set.copyOf(files.keySet())) {
+            if (usedFileIds.contains(fileId)) {
+                continue;
+            }
+
+            removedFiles.put(fileId, files.remove(fileId));
+            Path file = FileUtils.makePath(path, Long.toString(fileId), VALUE_LOG_FILE_EXT);
+            synchronized (pinLock) {
+                if (countPins > 0) {
+                    deferredDeletions.add(file);
+                    continue;
+                }
+            }
+            delete(file);
+        }
+    }
+
+    /**
+     * Keeps all current files on disk until {@link #unpin()}, they are still removed from the log.
+     * Must not be called concurrently with removing of files.
+     * @return ids of pinned files
+     */
+    public Set<Long> pin() {
+        synchronized (pinLock) {
+            ++countPins;
+            return Set.copyOf(files.keySet());
+        }
+    }
+
+    public void unpin() {
+        List<Path> deletions;
+        synchronized (pinLock) {
+            if (--countPins > 0) {
+                return;
+            }
+            deletions = List.copyOf(deferredDeletions);
+            deferredDeletions.clear();
+        }
+        deletions.forEach(this::delete);
+    }
+
+    /**
+     * Creates hard links of the pinned files in the directory or copies them if the directory is on
+     * another file system.
+     */
+    public void link(Path target, Set<Long> fileIds) throws IOException {
+        for (Long fileId : fileIds) {
+            String fileName = Long.toString(fileId);
+            FileUtils.linkOrCopy(
+                    FileUtils.makePath(path, fileName, VALUE_LOG_FILE_EXT),
+                    FileUtils.makePath(target, fileName, VALUE_LOG_FILE_EXT)
+            );
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Deleting was failed for value log file " + file, e);
+        }
+    }
+
+    private void loadFiles() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*." + VALUE_LOG_FILE_EXT)) {
+            for (Path file : stream) {
+                long fileId = Long.parseLong(FileUtils.extractFileName(file, VALUE_LOG_FILE_EXT));
+                files.put(fileId, map(file));
+            }
+        }
+    }
+
+    private MemorySegment map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+        }
+    }
+
+    /**
+     * Appends values to a new value log file. The file is created on the first append
+     * and becomes readable only after closing.
+     */
+    public final class Writer implements Closeable {
+        private final long fileId;
+        private final Path tmpFile;
+        private final RateLimiter.Throttle throttle;
+        private FileChannel channel;
+        private long position;
+
+        private Writer(long fileId, RateLimiter.Throttle throttle) {
+            this.fileId = fileId;
+            this.throttle = throttle;
+            this.tmpFile = FileUtils.makePath(
+                    path,
+                    fileId + "." + VALUE_LOG_FILE_EXT,
+                    FileUtils.TMP_FILE_EXT
+            );
+        }
+
+        public ValuePointer append(MemorySegment value) throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING);
+            }
+
+            throttle.written(value.byteSize());
+            ValuePointer pointer = new ValuePointer(fileId, position, value.byteSize());
+            ByteBuffer buffer = value.asByteBuffer();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return pointer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel == null) {
+                return;
+            }
+
+            try {
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+            Path file = FileUtils.makePath(path, Long.toString(fileId), VALUE_LOG_FILE_EXT);
+            Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            files.put(fileId, map(file));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.holeyko.vlog;
+
+import com.holeyko.entry.Entry;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Entry which value is stored in the value log. The value is resolved only on demand,
+ * so merges which don't need the value (e.g. compaction) don't touch the value log.
+ */
+public class ValueLogEntry implements Entry<MemorySegment> {
+    private final MemorySegment key;
+    private final ValuePointer pointer;
+    private final ValueLog valueLog;
+    private final long expiresAt;
+
+    public ValueLogEntry(MemorySegment key, ValuePointer pointer, ValueLog valueLog, long expiresAt) {
+        this.key = key;
+        this.pointer = pointer;
+        this.valueLog = valueLog;
+        this.expiresAt = expiresAt;
+    }
+
+    @Override
+    public MemorySegment key() {
+        return key;
+    }
+
+    @Override
+    public MemorySegment value() {
+        return valueLog.read(pointer);
+    }
+
+    @Override
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    public ValuePointer pointer() {
+        return pointer;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + key + ":" + pointer + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package com.holeyko.vlog;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Location of a value in the value log: id of the file, offset of the value in it and size of the value.
+ */
+public record ValuePointer(long fileId, long offset, long size) {
+    public static final int BYTES = 3 * Long.BYTES;
+
+    public static ValuePointer read(MemorySegment segment, long offset) {
+        return new ValuePointer(
+                segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset),
+                segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + Long.BYTES),
+                segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + 2 * Long.BYTES)
+        );
+    }
+
+    public void write(MemorySegment segment, long offset) {
+        segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, fileId);
+        segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset + Long.BYTES, this.offset);
+        segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset + 2 * Long.BYTES, size);
+    }
+}